@@ -0,0 +1,135 @@
+package com.reactlibrary.datamatrix.env;
+
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Checks the fused detector preprocessing, {@link ImageUtils#convertYUV420ToTensor}, against the
+ * bitmap path it replaced: a full ARGB frame drawn onto the input bitmap with {@code
+ * Canvas.drawBitmap} and packed with {@link ImageUtils#convertARGB8888ToTensor}.
+ *
+ * <p>Both sample nearest neighbours, but may round a sample on a pixel boundary differently, so
+ * the fixture is a smooth gradient on which neighbouring pixels differ by a level or two. The
+ * inputs must agree within {@link #MEAN_TOLERANCE} levels on average, and no more than {@link
+ * #OUTLIER_FRACTION} of the values may differ by more than {@link #VALUE_TOLERANCE} levels.
+ */
+@RunWith(AndroidJUnit4.class)
+public class YuvToTensorTest {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int INPUT_SIZE = 300;
+  private static final float MEAN_TOLERANCE = 1f;
+  private static final int VALUE_TOLERANCE = 4;
+  private static final float OUTLIER_FRACTION = 0.001f;
+
+  @Test
+  public void planarFrameMatchesBitmapPath() {
+    assertInputsAgree(createPlanarFrame(WIDTH, HEIGHT, WIDTH + 16, WIDTH / 2 + 8, 1), 90);
+  }
+
+  @Test
+  public void interleavedFrameMatchesBitmapPath() {
+    assertInputsAgree(createPlanarFrame(WIDTH, HEIGHT, WIDTH + 32, WIDTH + 32, 2), 90);
+  }
+
+  @Test
+  public void nv21FrameMatchesBitmapPath() {
+    assertInputsAgree(createNv21Frame(WIDTH, HEIGHT), 0);
+  }
+
+  private static void assertInputsAgree(final YuvFrame frame, final int orientation) {
+    final Matrix frameToInput = ImageUtils.getTransformationMatrix(frame.width, frame.height, INPUT_SIZE, INPUT_SIZE, orientation, false);
+    final Matrix inputToFrame = new Matrix();
+    frameToInput.invert(inputToFrame);
+
+    final int[] framePixels = new int[frame.width * frame.height];
+    ImageUtils.convertYUV420ToARGB8888(frame, framePixels);
+    final Bitmap frameBitmap = Bitmap.createBitmap(frame.width, frame.height, Bitmap.Config.ARGB_8888);
+    frameBitmap.setPixels(framePixels, 0, frame.width, 0, 0, frame.width, frame.height);
+    final Bitmap inputBitmap = Bitmap.createBitmap(INPUT_SIZE, INPUT_SIZE, Bitmap.Config.ARGB_8888);
+    new Canvas(inputBitmap).drawBitmap(frameBitmap, frameToInput, null);
+    final int[] inputPixels = new int[INPUT_SIZE * INPUT_SIZE];
+    inputBitmap.getPixels(inputPixels, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
+    final ByteBuffer expected = ByteBuffer.allocate(INPUT_SIZE * INPUT_SIZE * 3);
+    ImageUtils.convertARGB8888ToTensor(inputPixels, inputPixels.length, true, 0, 1, expected);
+
+    final ByteBuffer actual = ByteBuffer.allocate(INPUT_SIZE * INPUT_SIZE * 3);
+    ImageUtils.convertYUV420ToTensor(frame, inputToFrame, INPUT_SIZE, INPUT_SIZE, true, 0, 1, actual);
+
+    final byte[] a = expected.array();
+    final byte[] b = actual.array();
+    long sum = 0;
+    int outliers = 0;
+    for (int i = 0; i < a.length; ++i) {
+      final int difference = Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+      sum += difference;
+      if (difference > VALUE_TOLERANCE) {
+        ++outliers;
+      }
+    }
+    final float mean = sum / (float) a.length;
+    assertTrue("Mean difference " + mean, mean <= MEAN_TOLERANCE);
+    assertTrue(outliers + " values differ by more than " + VALUE_TOLERANCE, outliers <= OUTLIER_FRACTION * a.length);
+  }
+
+  // A horizontal and vertical gradient in luminance, chroma varying slowly across the frame.
+  private static int luma(final int x, final int y, final int width, final int height) {
+    return 16 + (x + y) * 219 / (width + height);
+  }
+
+  private static int chromaU(final int x, final int width) {
+    return 96 + x * 64 / width;
+  }
+
+  private static int chromaV(final int y, final int height) {
+    return 160 - y * 64 / height;
+  }
+
+  /** Camera2 style planes with padded rows; pixel stride 2 interleaves chroma like NV21. */
+  static YuvFrame createPlanarFrame(
+      final int width, final int height, final int yRowStride, final int uvRowStride, final int uvPixelStride) {
+    final byte[] y = new byte[yRowStride * height];
+    for (int j = 0; j < height; ++j) {
+      for (int i = 0; i < width; ++i) {
+        y[j * yRowStride + i] = (byte) luma(i, j, width, height);
+      }
+    }
+    final int chromaHeight = (height + 1) / 2;
+    final byte[] u = new byte[uvRowStride * chromaHeight];
+    final byte[] v = new byte[uvRowStride * chromaHeight];
+    for (int j = 0; j < chromaHeight; ++j) {
+      for (int i = 0; i < (width + 1) / 2; ++i) {
+        u[j * uvRowStride + i * uvPixelStride] = (byte) chromaU(2 * i, width);
+        v[j * uvRowStride + i * uvPixelStride] = (byte) chromaV(2 * j, height);
+      }
+    }
+    return new YuvFrame(y, u, v, 0, 0, width, height, yRowStride, uvRowStride, uvPixelStride);
+  }
+
+  static YuvFrame createNv21Frame(final int width, final int height) {
+    final byte[] nv21 = new byte[ImageUtils.getYUVByteSize(width, height)];
+    for (int j = 0; j < height; ++j) {
+      for (int i = 0; i < width; ++i) {
+        nv21[j * width + i] = (byte) luma(i, j, width, height);
+      }
+    }
+    for (int j = 0; j < height / 2; ++j) {
+      for (int i = 0; i < width / 2; ++i) {
+        final int offset = width * height + j * width + 2 * i;
+        nv21[offset] = (byte) chromaV(2 * j, height);
+        nv21[offset + 1] = (byte) chromaU(2 * i, width);
+      }
+    }
+    return YuvFrame.fromNv21(nv21, width, height);
+  }
+}
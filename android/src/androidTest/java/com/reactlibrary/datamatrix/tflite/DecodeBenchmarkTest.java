@@ -0,0 +1,105 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.graphics.RectF;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+import com.reactlibrary.datamatrix.ScannerResources;
+import com.reactlibrary.datamatrix.env.LuminanceFrame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how decoding the crops of one frame scales with the workers of a {@link
+ * BarcodeDecoderPool}, over a fixed frame so runs on different devices and builds compare. The
+ * frame holds {@link #SYMBOLS} symbols laid out like Data Matrix codes, an L shaped finder, a
+ * dotted timing border and seeded random modules, which the decoder rejects only after trying
+ * every stage of the ladder, the most expensive case. Results are logged, run it with
+ *
+ * <pre>
+ * ./gradlew connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.reactlibrary.datamatrix.tflite.DecodeBenchmarkTest
+ * adb logcat -s DecodeBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecodeBenchmarkTest {
+  private static final String TAG = "DecodeBenchmark";
+  private static final int MAX_WORKERS = 4;
+  private static final int ROUNDS = 5;
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+  private static final int SYMBOLS = 8;
+  private static final int MODULES = 18;
+  private static final int MODULE_SIZE = 6;
+  private static final long SEED = 42;
+
+  @Test
+  public void decodingScalesWithWorkers() {
+    final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    assumeTrue("OpenCV not available", ScannerResources.loadOpenCv());
+    final BarcodeDetector probe = new BarcodeDetector.Builder(context).setBarcodeFormats(Barcode.DATA_MATRIX).build();
+    final boolean operational = probe.isOperational();
+    probe.release();
+    assumeTrue("Barcode detector not operational", operational);
+
+    final List<RectF> locations = new ArrayList<RectF>(SYMBOLS);
+    final LuminanceFrame frame = createFrame(locations);
+    final DecodeLadder ladder = new DecodeLadder(DecodeLadder.Stage.values());
+    final BarcodeDecoderPool pool = new BarcodeDecoderPool(context, MAX_WORKERS);
+    final float[] roundMs = TFLiteObjectDetectionAPIModel.benchmarkDecoding(locations, frame, ladder, pool, ROUNDS);
+    for (int i = 0; i < roundMs.length; ++i) {
+      Log.i(TAG, String.format("%d crops, %d workers: %.1fms per round (x%.2f)", locations.size(), i + 1, roundMs[i], roundMs[0] / roundMs[i]));
+    }
+    Log.i(TAG, "Ladder: " + ladder.getStatString());
+  }
+
+  // Grey background with the symbols in a grid, their boxes added to locations.
+  private static LuminanceFrame createFrame(final List<RectF> locations) {
+    final byte[] data = new byte[WIDTH * HEIGHT];
+    Arrays.fill(data, (byte) 180);
+    final Random random = new Random(SEED);
+    final int side = MODULES * MODULE_SIZE;
+    final int columns = SYMBOLS / 2;
+    for (int s = 0; s < SYMBOLS; ++s) {
+      final int left = (s % columns) * WIDTH / columns + (WIDTH / columns - side) / 2;
+      final int top = (s / columns) * HEIGHT / 2 + (HEIGHT / 2 - side) / 2;
+      for (int row = 0; row < MODULES; ++row) {
+        for (int column = 0; column < MODULES; ++column) {
+          final boolean dark;
+          if (column == 0 || row == MODULES - 1) {
+            dark = true;
+          } else if (row == 0) {
+            dark = column % 2 == 0;
+          } else if (column == MODULES - 1) {
+            dark = row % 2 == 1;
+          } else {
+            dark = random.nextBoolean();
+          }
+          fillModule(data, left + column * MODULE_SIZE, top + row * MODULE_SIZE, dark ? 20 : 235);
+        }
+      }
+      locations.add(new RectF(left, top, left + side, top + side));
+    }
+    return new LuminanceFrame(data, WIDTH, HEIGHT, WIDTH);
+  }
+
+  private static void fillModule(final byte[] data, final int left, final int top, final int value) {
+    for (int y = top; y < top + MODULE_SIZE; ++y) {
+      Arrays.fill(data, y * WIDTH + left, y * WIDTH + left + MODULE_SIZE, (byte) value);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.res.AssetManager;
+import android.graphics.Matrix;
+import android.os.Debug;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.reactlibrary.datamatrix.env.ImageUtils;
+import com.reactlibrary.datamatrix.env.YuvFrame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Checks that detecting a frame doesn't allocate once the detector has warmed up and the caller
+ * reuses its buffers. Allocations are counted on the test thread only, so other threads can't
+ * account for any. The interpreter call is measured on its own and subtracted, as the TFLite Java
+ * binding may allocate per run, which is out of this library's hands.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectImageAllocationTest {
+  private static final String MODEL_FILE = "detect.tflite";
+  private static final String LABELS_FILE = "file:///android_asset/labelmap.txt";
+  private static final int INPUT_SIZE = 300;
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int ROUNDS = 20;
+
+  @Test
+  public void sampledConversionsDoNotAllocate() {
+    final YuvFrame frame = createFrame();
+    final Matrix inputToFrame = createInputToFrame();
+    final int[] pixels = new int[INPUT_SIZE * INPUT_SIZE];
+    final ByteBuffer tensor = ByteBuffer.allocate(INPUT_SIZE * INPUT_SIZE * 3);
+    final Runnable convert =
+        () -> {
+          ImageUtils.convertYUV420ToARGB8888(frame, inputToFrame, INPUT_SIZE, INPUT_SIZE, pixels);
+          ImageUtils.convertYUV420ToTensor(frame, inputToFrame, INPUT_SIZE, INPUT_SIZE, true, 0, 1, tensor);
+        };
+    assertEquals("Objects allocated", 0, countAllocations(convert));
+  }
+
+  @Test
+  public void steadyStateDetectionAllocatesNothingBeyondInference() throws Exception {
+    final AssetManager assets = InstrumentationRegistry.getInstrumentation().getContext().getAssets();
+    assumeTrue("No " + MODEL_FILE + " in the test assets", Arrays.asList(assets.list("")).contains(MODEL_FILE));
+    final TFLiteObjectDetectionAPIModel detector =
+        (TFLiteObjectDetectionAPIModel) TFLiteObjectDetectionAPIModel.create(assets, MODEL_FILE, LABELS_FILE, INPUT_SIZE, false);
+    try {
+      final YuvFrame frame = createFrame();
+      final Matrix inputToFrame = createInputToFrame();
+      final int detecting = countAllocations(() -> detector.detectImage(frame, inputToFrame));
+      final int inference = countAllocations(detector::runInference);
+      assertEquals("Objects allocated besides inference", 0, detecting - inference);
+    } finally {
+      detector.close();
+    }
+  }
+
+  // Objects allocated by the calling thread over ROUNDS runs, after WARMUP_ROUNDS unmeasured ones.
+  private static int countAllocations(final Runnable runnable) {
+    for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+      runnable.run();
+    }
+    Debug.resetThreadAllocCount();
+    Debug.startAllocCounting();
+    try {
+      for (int i = 0; i < ROUNDS; ++i) {
+        runnable.run();
+      }
+    } finally {
+      Debug.stopAllocCounting();
+    }
+    return Debug.getThreadAllocCount();
+  }
+
+  // A gradient, so the detector sees a frame like the camera's rather than a flat one.
+  private static YuvFrame createFrame() {
+    final byte[] nv21 = new byte[ImageUtils.getYUVByteSize(WIDTH, HEIGHT)];
+    for (int j = 0; j < HEIGHT; ++j) {
+      for (int i = 0; i < WIDTH; ++i) {
+        nv21[j * WIDTH + i] = (byte) (16 + (i + j) * 219 / (WIDTH + HEIGHT));
+      }
+    }
+    Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, (byte) 128);
+    return YuvFrame.fromNv21(nv21, WIDTH, HEIGHT);
+  }
+
+  private static Matrix createInputToFrame() {
+    final Matrix frameToInput = ImageUtils.getTransformationMatrix(WIDTH, HEIGHT, INPUT_SIZE, INPUT_SIZE, 90, false);
+    final Matrix inputToFrame = new Matrix();
+    frameToInput.invert(inputToFrame);
+    return inputToFrame;
+  }
+}
@@ -6,7 +6,10 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableMap;
 import com.reactlibrary.datamatrix.DetectorActivity;
+import com.reactlibrary.datamatrix.ScannerResources;
 
 public class DatamatrixReaderModule extends ReactContextBaseJavaModule {
 
@@ -21,9 +24,42 @@ public class DatamatrixReaderModule extends ReactContextBaseJavaModule {
         return "DatamatrixReader";
     }
 
+    /**
+     * Loads the detector model, OpenCV and the barcode detector in the background, so that
+     * OpenScanner only has to open the camera. Resolves with the time it took in milliseconds,
+     * which is close to 0 once everything is loaded.
+     */
+    @ReactMethod
+    public void prepare(final Promise promise) {
+        ScannerResources.prepare(reactContext, new ScannerResources.PrepareCallback() {
+            @Override
+            public void onPrepared(long elapsedMs) {
+                promise.resolve((double) elapsedMs);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                promise.reject("E_PREPARE", e);
+            }
+        });
+    }
+
     @ReactMethod
     public void OpenScanner() {
+        OpenScannerWithOptions(null);
+    }
+
+    /**
+     * Same as OpenScanner, with options for this session:
+     * maxDetections - codes detected per frame at most, e.g. the vials of a tray; defaults to all
+     * the model outputs.
+     */
+    @ReactMethod
+    public void OpenScannerWithOptions(ReadableMap options) {
         Intent intent = new Intent(reactContext, DetectorActivity.class);
+        if (options != null && options.hasKey("maxDetections")) {
+            intent.putExtra(DetectorActivity.EXTRA_MAX_DETECTIONS, options.getInt("maxDetections"));
+        }
         if(intent.resolveActivity(reactContext.getPackageManager())!=null){
             intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             reactContext.startActivity(intent);
@@ -24,9 +24,9 @@ import android.hardware.Camera;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
-import android.media.Image.Plane;
 import android.media.ImageReader;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.os.Build;
@@ -34,7 +34,6 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Trace;
-import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 import android.view.View;
@@ -53,23 +52,30 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SwitchCompat;
 import androidx.appcompat.widget.Toolbar;
 
-import com.google.android.gms.vision.barcode.Barcode;
 import com.google.android.gms.vision.barcode.BarcodeDetector;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 
-import org.opencv.android.OpenCVLoader;
 
 import com.reactlibrary.R;
 import com.reactlibrary.datamatrix.barcode.ApiClient;
 import com.reactlibrary.datamatrix.barcode.BarcodeListFragment;
 import com.reactlibrary.datamatrix.barcode.BarcodeResponse;
 import com.reactlibrary.datamatrix.barcode.RestInterfaces;
-import com.reactlibrary.datamatrix.env.ImageUtils;
 import com.reactlibrary.datamatrix.env.Logger;
+import com.reactlibrary.datamatrix.env.YuvConverter;
+import com.reactlibrary.datamatrix.env.YuvFrame;
+import com.reactlibrary.datamatrix.pipeline.FramePool;
+import com.reactlibrary.datamatrix.pipeline.FrameQualityGate;
+import com.reactlibrary.datamatrix.pipeline.FrameScheduler;
+import com.reactlibrary.datamatrix.pipeline.PooledFrame;
+import com.reactlibrary.datamatrix.pipeline.ResolutionController;
+import com.reactlibrary.datamatrix.pipeline.StageTimer;
+import com.reactlibrary.datamatrix.pipeline.StartupGraph;
+import com.reactlibrary.datamatrix.tflite.BarcodeDecoderPool;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import retrofit2.Call;
 import retrofit2.Callback;
@@ -79,18 +85,47 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
   private static final Logger LOGGER = new Logger();
   private static final int PERMISSIONS_REQUEST = 1;
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
-  protected int previewWidth = 0;
-  protected int previewHeight = 0;
+  // Volatile as the decode stage compares its frames against them off the inference thread.
+  protected volatile int previewWidth = 0;
+  protected volatile int previewHeight = 0;
   private boolean debug = false;
   private Handler handler;
   private HandlerThread handlerThread;
   private boolean useCamera2API;
-  private boolean isProcessingFrame = false;
-  private byte[][] yuvBytes = new byte[3][];
+  // Frames in flight at once: one being captured, one waiting for and one in detection, and one
+  // being decoded while the next is detected.
+  private static final int FRAME_POOL_SIZE = 4;
+  // Frames allowed to wait for the inference thread, older ones are dropped for newer ones.
+  private static final int MAX_PENDING_FRAMES = 1;
+  private final FramePool framePool = new FramePool(FRAME_POOL_SIZE);
+  // Full resolution frames of the dual stream mode, one being decoded and one arriving.
+  private static final int CROP_FRAME_POOL_SIZE = 2;
+  private final FramePool cropFramePool = new FramePool(CROP_FRAME_POOL_SIZE);
+  private CameraConnectionFragment camera2Fragment;
+  // Adapts the Camera2 capture size to getTargetFrameLatencyMs(), used on the inference thread.
+  private volatile ResolutionController resolutionController;
+  // Skips frames taken while focusing or blurred, ahead of processImage().
+  private static final boolean FRAME_QUALITY_GATE = true;
+  private final FrameQualityGate qualityGate = new FrameQualityGate();
+  // Decode results reported for the frame being processed, possibly from a decode thread.
+  private final AtomicInteger frameDetections = new AtomicInteger();
+  private final AtomicInteger frameDecoded = new AtomicInteger();
+  // Busy time of copying camera frames and of processing them on the inference thread.
+  private final StageTimer conversionTimer = new StageTimer("conversion", 1);
+  private final StageTimer detectionTimer = new StageTimer("detection", 1);
+  private FrameScheduler frameScheduler;
+  private PooledFrame currentFrame;
   private int[] rgbBytes = null;
-  private int yRowStride;
-  private Runnable postInferenceCallback;
-  private Runnable imageConverter;
+  // Colour conversion backend. The OpenCV one copies every frame into native memory and back, so
+  // it isn't known to beat the Java one; switch only after comparing both on the device.
+  private static final YuvConverter.Backend YUV_CONVERTER_BACKEND = YuvConverter.Backend.JAVA;
+  private boolean openCvLoaded = false;
+  private YuvConverter yuvConverter;
+  // Opens the camera while OpenCV, the decoders and the subclass' phases load, see onCreate.
+  protected static final String STARTUP_CAMERA = "camera";
+  protected static final String STARTUP_OPENCV = "opencv";
+  protected static final String STARTUP_BARCODE_DETECTOR = "barcode detector";
+  private StartupGraph startup;
   private LinearLayout bottomSheetLayout;
   private LinearLayout gestureLayout;
   private BottomSheetBehavior<LinearLayout> sheetBehavior;
@@ -104,18 +139,32 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
   public static final String server = "https://eczatrend.com/";
   private RestInterfaces restInterfaces;
   public static BarcodeDetector barcodeDetector;
+  // Decodes the crops of a frame in parallel, each worker with its own detector.
+  public static BarcodeDecoderPool decoderPool;
 
   @Override
   protected void onCreate(final Bundle savedInstanceState) {
     LOGGER.d("onCreate " + this);
     super.onCreate(null);
 
-    if (!OpenCVLoader.initDebug())
-      Log.e("OpenCv", "Unable to load OpenCV");
-    else
-      Log.d("OpenCv", "OpenCV loaded");
-
-    barcodeDetector = new BarcodeDetector.Builder(getApplicationContext()).setBarcodeFormats(Barcode.DATA_MATRIX ).build();
+    // Loaded once per process and shared by later sessions, see ScannerResources. Until all of
+    // it and the camera are ready, frames are dropped.
+    startup = new StartupGraph(startupListener);
+    startup.expect(STARTUP_CAMERA);
+    startup.addTask(
+        STARTUP_OPENCV,
+        () -> {
+          openCvLoaded = ScannerResources.loadOpenCv();
+          setYuvConverterBackend(YUV_CONVERTER_BACKEND);
+        });
+    startup.addTask(
+        STARTUP_BARCODE_DETECTOR,
+        () -> {
+          barcodeDetector = ScannerResources.getBarcodeDetector(this);
+          decoderPool = ScannerResources.getDecoderPool(this);
+        });
+    addStartupTasks(startup);
+    startup.start();
     getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
     setContentView(R.layout.tfe_od_activity_camera);
 
@@ -192,6 +241,35 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
     sendBarcode.setOnClickListener(this);
   }
 
+  private final StartupGraph.Listener startupListener =
+      new StartupGraph.Listener() {
+        @Override
+        public void onReady(final StartupGraph graph) {
+          LOGGER.i("Startup: %s", graph.getStatString());
+        }
+
+        @Override
+        public void onFailed(final String phase, final Exception e) {
+          LOGGER.e(e, "Startup phase %s failed", phase);
+          runOnUiThread(() -> onStartupFailed(phase, e));
+        }
+      };
+
+  /**
+   * Adds the subclass' own startup phases, e.g. loading a detector, which run in parallel with
+   * opening the camera. Frames are only processed once all phases have completed.
+   */
+  protected void addStartupTasks(final StartupGraph startup) {}
+
+  /** Called on the UI thread when a startup phase failed, the scanner can't run. */
+  protected void onStartupFailed(final String phase, final Exception e) {
+    finish();
+  }
+
+  protected StartupGraph getStartup() {
+    return startup;
+  }
+
   public void updateCount(){
     this.runOnUiThread(() -> {
       barcodeCount.setText(getBarcodeCount());
@@ -229,61 +307,78 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
   }
 
   protected int[] getRgbBytes() {
-    imageConverter.run();
+    // Allocated on first use, callers that sample the YUV planes directly never need it.
+    if (rgbBytes == null) {
+      rgbBytes = new int[previewWidth * previewHeight];
+    }
+    getYuvConverter().convertToArgb(currentFrame.getYuvFrame(), rgbBytes);
     return rgbBytes;
   }
 
+  /** Switches the colour conversion backend, the Java one is used if OpenCV isn't available. */
+  protected synchronized void setYuvConverterBackend(final YuvConverter.Backend backend) {
+    yuvConverter = YuvConverter.create(backend, openCvLoaded);
+    LOGGER.i("Converting frames with the %s backend", yuvConverter.getBackend());
+  }
+
+  protected synchronized YuvConverter getYuvConverter() {
+    return yuvConverter;
+  }
+
+  /**
+   * Returns the frame being processed. It is only guaranteed to stay valid during {@link
+   * #processImage()}; stages that use it afterwards must {@link PooledFrame#retain()} it and
+   * release it when they are done.
+   */
+  protected PooledFrame getFrame() {
+    return currentFrame;
+  }
+
+  protected YuvFrame getYuvFrame() {
+    return currentFrame.getYuvFrame();
+  }
+
   protected int getLuminanceStride() {
-    return yRowStride;
+    return currentFrame.getYuvFrame().yRowStride;
   }
 
   protected byte[] getLuminance() {
-    return yuvBytes[0];
+    return currentFrame.getYuvFrame().yData;
   }
 
   /** Callback for android.hardware.Camera API */
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
-    if (isProcessingFrame) {
-      LOGGER.w("Dropping frame!");
-      return;
-    }
-
     try {
       // Initialize the storage bitmaps once when the resolution is known.
-      if (rgbBytes == null) {
+      if (previewWidth == 0 || previewHeight == 0) {
         Camera.Size previewSize = camera.getParameters().getPreviewSize();
         previewHeight = previewSize.height;
         previewWidth = previewSize.width;
-        rgbBytes = new int[previewWidth * previewHeight];
         onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
+        startup.complete(STARTUP_CAMERA);
       }
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
       return;
     }
+    if (!startup.isReady()) {
+      startup.onFrameDropped();
+      camera.addCallbackBuffer(bytes);
+      return;
+    }
 
-    isProcessingFrame = true;
-    yuvBytes[0] = bytes;
-    yRowStride = previewWidth;
-
-    imageConverter =
-        new Runnable() {
-          @Override
-          public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
-          }
-        };
-
-    postInferenceCallback =
-        new Runnable() {
-          @Override
-          public void run() {
-            camera.addCallbackBuffer(bytes);
-            isProcessingFrame = false;
-          }
-        };
-    processImage();
+    final PooledFrame frame = framePool.acquire();
+    if (frame == null) {
+      LOGGER.w("Dropping frame!");
+      camera.addCallbackBuffer(bytes);
+      return;
+    }
+    frame.fill(bytes, previewWidth, previewHeight, System.nanoTime());
+    conversionTimer.add(System.nanoTime() - frame.getTimestamp());
+    // The pooled copy is all we need, the camera can refill its buffer right away.
+    camera.addCallbackBuffer(bytes);
+    processFrame(frame);
   }
 
   /** Callback for Camera2 API */
@@ -293,8 +388,14 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
     if (previewWidth == 0 || previewHeight == 0) {
       return;
     }
-    if (rgbBytes == null) {
-      rgbBytes = new int[previewWidth * previewHeight];
+    if (!startup.isReady()) {
+      // Drop rather than queue frames until everything is loaded, so the first one is fresh.
+      final Image image = reader.acquireLatestImage();
+      if (image != null) {
+        image.close();
+        startup.onFrameDropped();
+      }
+      return;
     }
     try {
       final Image image = reader.acquireLatestImage();
@@ -303,45 +404,17 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
         return;
       }
 
-      if (isProcessingFrame) {
+      final PooledFrame frame = framePool.acquire();
+      if (frame == null) {
         image.close();
         return;
       }
-      isProcessingFrame = true;
       Trace.beginSection("imageAvailable");
-      final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
-      yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
-
-      imageConverter =
-          new Runnable() {
-            @Override
-            public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
-                  yuvBytes[0],
-                  yuvBytes[1],
-                  yuvBytes[2],
-                  previewWidth,
-                  previewHeight,
-                  yRowStride,
-                  uvRowStride,
-                  uvPixelStride,
-                  rgbBytes);
-            }
-          };
-
-      postInferenceCallback =
-          new Runnable() {
-            @Override
-            public void run() {
-              image.close();
-              isProcessingFrame = false;
-            }
-          };
-
-      processImage();
+      // Frames carry their own size, the capture size may change while they're queued.
+      frame.fill(image.getPlanes(), image.getWidth(), image.getHeight(), System.nanoTime());
+      image.close();
+      conversionTimer.add(System.nanoTime() - frame.getTimestamp());
+      processFrame(frame);
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
       Trace.endSection();
@@ -350,6 +423,190 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
     Trace.endSection();
   }
 
+  /** Receives the full resolution frames of the dual stream mode and decodes them in the background. */
+  private final OnImageAvailableListener cropImageListener =
+      new OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(final ImageReader reader) {
+          final Image image = reader.acquireLatestImage();
+          if (image == null) {
+            return;
+          }
+          final PooledFrame frame = cropFramePool.acquire();
+          if (frame == null) {
+            image.close();
+            return;
+          }
+          frame.fill(image.getPlanes(), image.getWidth(), image.getHeight(), System.nanoTime());
+          image.close();
+          final boolean posted =
+              runInBackground(
+                  () -> {
+                    try {
+                      processCropFrame(frame);
+                    } finally {
+                      frame.release();
+                    }
+                  });
+          if (!posted) {
+            frame.release();
+          }
+        }
+      };
+
+  /** Whether full resolution frames can be requested with {@link #requestCropFrame()}. */
+  protected boolean hasCropStream() {
+    return camera2Fragment != null && camera2Fragment.hasCropStream();
+  }
+
+  /**
+   * Asks the camera for one full resolution frame, which is handed to {@link
+   * #processCropFrame(PooledFrame)} on the inference thread.
+   */
+  protected void requestCropFrame() {
+    if (camera2Fragment != null) {
+      camera2Fragment.requestCropFrame();
+    }
+  }
+
+  /** Called on the inference thread with a frame requested by {@link #requestCropFrame()}. */
+  protected void processCropFrame(final PooledFrame frame) {}
+
+  /**
+   * Size of the frames to run detection on in dual stream mode, or null to detect on the preview
+   * frames themselves.
+   */
+  protected Size getDesiredAnalysisFrameSize() {
+    return null;
+  }
+
+  private synchronized void processFrame(final PooledFrame frame) {
+    if (frameScheduler != null) {
+      frameScheduler.submit(frame);
+    }
+    // Drop the camera callback's reference, the scheduler holds its own.
+    frame.release();
+  }
+
+  // Called on the inference thread with the newest frame the scheduler has.
+  private void onScheduledFrame(final PooledFrame frame) {
+    final YuvFrame yuvFrame = frame.getYuvFrame();
+    if (yuvFrame.width != previewWidth || yuvFrame.height != previewHeight) {
+      // Left over from before a capture size change.
+      return;
+    }
+    if (FRAME_QUALITY_GATE && qualityGate.evaluate(yuvFrame) != FrameQualityGate.Decision.PASS) {
+      currentFrame = frame;
+      try {
+        processSkippedImage();
+      } finally {
+        currentFrame = null;
+      }
+      return;
+    }
+    if (startup.recordEvent("first frame")) {
+      LOGGER.i("Startup: %s", startup.getStatString());
+    }
+    final long start = System.nanoTime();
+    currentFrame = frame;
+    try {
+      processImage();
+    } finally {
+      currentFrame = null;
+      detectionTimer.add(System.nanoTime() - start);
+    }
+
+    final int detections = frameDetections.getAndSet(0);
+    final int decoded = frameDecoded.getAndSet(0);
+    final ResolutionController controller = resolutionController;
+    if (controller != null) {
+      final float latencyMs = (System.nanoTime() - frame.getTimestamp()) / 1e6f;
+      final Size size = controller.onFrameProcessed(latencyMs, detections, decoded);
+      if (size != null) {
+        camera2Fragment.changePreviewSize(size);
+      }
+    }
+  }
+
+  /**
+   * Reports how many detections were found and decoded, which the resolution controller weighs
+   * against latency. Results of several calls add up per frame; those reported from another
+   * thread after processImage() returned, e.g. by a decode stage, count towards the next frame.
+   */
+  protected void reportDecodeResults(final int detections, final int decoded) {
+    frameDetections.addAndGet(detections);
+    frameDecoded.addAndGet(decoded);
+  }
+
+  /** Utilisation of the stages run by this class: copying camera frames and processing them. */
+  protected String getStageStatString() {
+    return conversionTimer.getStatString() + "; " + detectionTimer.getStatString();
+  }
+
+  // Called by the Camera2 fragment whenever it (re)configures the capture session.
+  private void onCamera2SizeChosen(final Size size, final int rotation) {
+    final long targetLatencyMs = getTargetFrameLatencyMs();
+    final ResolutionController controller = resolutionController;
+    if (hasCropStream()) {
+      // Latency depends on the analysis stream, which keeps about the same size whatever the
+      // preview size, so stepping the preview down would only cost the crops their pixels.
+      resolutionController = null;
+    } else if (targetLatencyMs > 0
+        && (controller == null || !controller.getCurrentSize().equals(camera2Fragment.getPreviewSize()))) {
+      resolutionController =
+          new ResolutionController(
+              camera2Fragment.getSupportedPreviewSizes(), camera2Fragment.getPreviewSize(), targetLatencyMs);
+    }
+
+    if (previewWidth == 0 || previewHeight == 0) {
+      previewHeight = size.getHeight();
+      previewWidth = size.getWidth();
+      onPreviewSizeChosen(size, rotation);
+      startup.complete(STARTUP_CAMERA);
+      return;
+    }
+    // Later sizes are applied between frames, on the thread that processes them.
+    final Runnable change =
+        () -> {
+          previewHeight = size.getHeight();
+          previewWidth = size.getWidth();
+          rgbBytes = null;
+          // Frames processed while the session was rebuilt belong to the old size.
+          final ResolutionController current = resolutionController;
+          if (current != null) {
+            current.resetWindow();
+          }
+          onPreviewSizeChanged(size, rotation);
+        };
+    if (!runInBackground(change)) {
+      change.run();
+    }
+  }
+
+  /**
+   * Called on the inference thread when the Camera2 capture size changed after {@link
+   * #onPreviewSizeChosen}, before the first frame of the new size is processed.
+   */
+  protected void onPreviewSizeChanged(final Size size, final int rotation) {}
+
+  /**
+   * Latency from a frame arriving to its results that the Camera2 capture size is adapted to, or 0
+   * to keep the size chosen at startup.
+   */
+  protected long getTargetFrameLatencyMs() {
+    return 0;
+  }
+
+  /** Counters of frames let through or skipped by the quality gate, and their sharpness. */
+  protected FrameQualityGate getQualityGate() {
+    return qualityGate;
+  }
+
+  /** Counters of frames received from the camera, dropped and processed. */
+  protected synchronized FrameScheduler getFrameScheduler() {
+    return frameScheduler;
+  }
+
   @Override
   public synchronized void onStart() {
     LOGGER.d("onStart " + this);
@@ -364,17 +621,30 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
     handlerThread = new HandlerThread("inference");
     handlerThread.start();
     handler = new Handler(handlerThread.getLooper());
+    frameScheduler =
+        new FrameScheduler(
+            handler,
+            MAX_PENDING_FRAMES,
+            new FrameScheduler.FrameConsumer() {
+              @Override
+              public void onFrame(final PooledFrame frame) {
+                onScheduledFrame(frame);
+              }
+            });
   }
 
   @Override
   public synchronized void onPause() {
     LOGGER.d("onPause " + this);
 
+    frameScheduler.stop();
+    LOGGER.i("Frame scheduler: %s", frameScheduler.getStatString());
     handlerThread.quitSafely();
     try {
       handlerThread.join();
       handlerThread = null;
       handler = null;
+      frameScheduler = null;
     } catch (final InterruptedException e) {
       LOGGER.e(e, "Exception!");
     }
@@ -394,10 +664,9 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
     super.onDestroy();
   }
 
-  protected synchronized void runInBackground(final Runnable r) {
-    if (handler != null) {
-      handler.post(r);
-    }
+  /** Posts {@code r} to the inference thread, returns false if it isn't running. */
+  protected synchronized boolean runInBackground(final Runnable r) {
+    return handler != null && handler.post(r);
   }
 
   @Override
@@ -485,20 +754,29 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
   }
 
   private void setFragment() {
+    startup.begin(STARTUP_CAMERA);
     String cameraId = chooseCamera();
 
     Fragment fragment;
     if (useCamera2API) {
-      CameraConnectionFragment camera2Fragment = CameraConnectionFragment.newInstance(new CameraConnectionFragment.ConnectionCallback() {
+      camera2Fragment = CameraConnectionFragment.newInstance(new CameraConnectionFragment.ConnectionCallback() {
                 @Override
                 public void onPreviewSizeChosen(final Size size, final int rotation) {
-                  previewHeight = size.getHeight();
-                  previewWidth = size.getWidth();
-                  CameraActivity.this.onPreviewSizeChosen(size, rotation);
+                  onCamera2SizeChosen(size, rotation);
                 }
               },
               this, getLayoutId(), getDesiredPreviewFrameSize());
       camera2Fragment.setCamera(cameraId);
+      camera2Fragment.setCaptureResultListener(
+          new CameraConnectionFragment.CaptureResultListener() {
+            @Override
+            public void onCaptureCompleted(final TotalCaptureResult result) {
+              qualityGate.onCaptureResult(result);
+            }
+          });
+      if (getDesiredAnalysisFrameSize() != null) {
+        camera2Fragment.setCropStream(getDesiredAnalysisFrameSize(), cropImageListener);
+      }
       fragment = camera2Fragment;
     } else {
       fragment = new LegacyCameraConnectionFragment(this, getLayoutId(), getDesiredPreviewFrameSize());
@@ -507,29 +785,10 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
     getFragmentManager().beginTransaction().replace(R.id.container, fragment,"fragment").commit();
   }
 
-  protected void fillBytes(final Plane[] planes, final byte[][] yuvBytes) {
-    // Because of the variable row stride it's not possible to know in
-    // advance the actual necessary dimensions of the yuv planes.
-    for (int i = 0; i < planes.length; ++i) {
-      final ByteBuffer buffer = planes[i].getBuffer();
-      if (yuvBytes[i] == null) {
-        LOGGER.d("Initializing buffer %d at size %d", i, buffer.capacity());
-        yuvBytes[i] = new byte[buffer.capacity()];
-      }
-      buffer.get(yuvBytes[i]);
-    }
-  }
-
   public boolean isDebug() {
     return debug;
   }
 
-  protected void readyForNextImage() {
-    if (postInferenceCallback != null) {
-      postInferenceCallback.run();
-    }
-  }
-
   protected int getScreenOrientation() {
     switch (getWindowManager().getDefaultDisplay().getRotation()) {
       case Surface.ROTATION_270:
@@ -623,8 +882,19 @@ public abstract class CameraActivity extends AppCompatActivity implements OnImag
       }
   }
 
+  /**
+   * Processes the frame returned by {@link #getFrame()}. Runs on the inference thread, fed by a
+   * {@link FrameScheduler} that drops stale frames while the previous one is still processing.
+   */
   protected abstract void processImage();
 
+  /**
+   * Processes the frame returned by {@link #getFrame()} that the quality gate kept from {@link
+   * #processImage()}, e.g. to follow motion in its luminance while the camera moves or focuses.
+   * Runs on the inference thread.
+   */
+  protected void processSkippedImage() {}
+
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
 
   protected abstract int getLayoutId();
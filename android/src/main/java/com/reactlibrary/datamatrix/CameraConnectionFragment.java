@@ -34,6 +34,7 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
@@ -64,6 +65,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @SuppressLint("ValidFragment")
 public class CameraConnectionFragment extends Fragment {
@@ -98,6 +100,9 @@ public class CameraConnectionFragment extends Fragment {
 
   private final ConnectionCallback cameraConnectionCallback;
 
+  /** Receives the results of the preview captures, see {@link #setCaptureResultListener}. */
+  private volatile CaptureResultListener captureResultListener;
+
   private final CameraCaptureSession.CaptureCallback captureCallback =
       new CameraCaptureSession.CaptureCallback() {
         @Override
@@ -110,7 +115,12 @@ public class CameraConnectionFragment extends Fragment {
         public void onCaptureCompleted(
             final CameraCaptureSession session,
             final CaptureRequest request,
-            final TotalCaptureResult result) {}
+            final TotalCaptureResult result) {
+          final CaptureResultListener listener = captureResultListener;
+          if (listener != null) {
+            listener.onCaptureCompleted(result);
+          }
+        }
       };
   /** ID of the current {@link CameraDevice}. */
   private String cameraId;
@@ -130,6 +140,40 @@ public class CameraConnectionFragment extends Fragment {
   private Handler backgroundHandler;
   /** An {@link ImageReader} that handles preview frame capture. */
   private ImageReader previewReader;
+  /** Size of the analysis stream asked for by {@link #setCropStream}, null for a single stream. */
+  private Size desiredAnalysisSize;
+  /** Receives full resolution frames requested with {@link #requestCropFrame()}. */
+  private OnImageAvailableListener cropImageListener;
+  /** The {@link Size} of the frames fed to {@link #imageListener}, smaller than the preview in dual stream mode. */
+  private Size analysisSize;
+  /** YUV output sizes of the camera, to pick analysis sizes from. */
+  private Size[] yuvOutputSizes;
+  /** Preview sizes with the aspect ratio of the initial one, see {@link #changePreviewSize}. */
+  private Size[] supportedPreviewSizes;
+  /** An {@link ImageReader} for the full resolution frames, only set in dual stream mode. */
+  private ImageReader cropReader;
+  /** {@link CaptureRequest} sending one frame to {@link #cropReader} and the preview. */
+  private volatile CaptureRequest cropRequest;
+  /** Whether a crop frame has been requested and not captured yet. */
+  private final AtomicBoolean cropFramePending = new AtomicBoolean();
+  private final CameraCaptureSession.CaptureCallback cropCaptureCallback =
+      new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(
+            final CameraCaptureSession session,
+            final CaptureRequest request,
+            final TotalCaptureResult result) {
+          cropFramePending.set(false);
+        }
+
+        @Override
+        public void onCaptureFailed(
+            final CameraCaptureSession session,
+            final CaptureRequest request,
+            final CaptureFailure failure) {
+          cropFramePending.set(false);
+        }
+      };
   /** {@link CaptureRequest.Builder} for the camera preview */
   private CaptureRequest.Builder previewRequestBuilder;
   /** {@link CaptureRequest} generated by {@link #previewRequestBuilder} */
@@ -264,6 +308,32 @@ public class CameraConnectionFragment extends Fragment {
     return  rateSize;
   }
 
+  /**
+   * Chooses the smallest size with the aspect ratio of {@code previewSize} that is at least {@code
+   * width} wide, so analysis frames cover exactly the field of view of the full resolution ones.
+   *
+   * @return The chosen size, or null if the camera has no smaller size with that aspect ratio
+   */
+  protected static Size chooseAnalysisSize(final Size[] choices, final Size previewSize, final int width) {
+    Size chosenSize = null;
+    for (final Size option : choices) {
+      final boolean sameAspectRatio =
+          (long) option.getWidth() * previewSize.getHeight()
+              == (long) option.getHeight() * previewSize.getWidth();
+      if (!sameAspectRatio || option.getWidth() >= previewSize.getWidth()) {
+        continue;
+      }
+      // Prefer sizes that are wide enough, and among those the smallest.
+      if (chosenSize == null
+          || (chosenSize.getWidth() < width
+              ? option.getWidth() > chosenSize.getWidth()
+              : option.getWidth() >= width && option.getWidth() < chosenSize.getWidth())) {
+        chosenSize = option;
+      }
+    }
+    return chosenSize;
+  }
+
   public static CameraConnectionFragment newInstance(
       final ConnectionCallback callback,
       final OnImageAvailableListener imageListener,
@@ -333,6 +403,44 @@ public class CameraConnectionFragment extends Fragment {
     this.cameraId = cameraId;
   }
 
+  /** Sets a listener for the results of the repeating preview request, e.g. to follow focus. */
+  public void setCaptureResultListener(final CaptureResultListener listener) {
+    this.captureResultListener = listener;
+  }
+
+  /**
+   * Switches to dual stream mode, must be called before the camera is opened. The image listener
+   * then gets small frames of about {@code analysisSize} for detection, and full resolution frames
+   * go to {@code cropListener}, but only when asked for with {@link #requestCropFrame()}.
+   */
+  public void setCropStream(final Size analysisSize, final OnImageAvailableListener cropListener) {
+    this.desiredAnalysisSize = analysisSize;
+    this.cropImageListener = cropListener;
+  }
+
+  /** Whether the session was set up with a separate full resolution stream. */
+  public boolean hasCropStream() {
+    return desiredAnalysisSize != null && analysisSize != previewSize;
+  }
+
+  /**
+   * Captures one full resolution frame for the crop listener. Requests made while one is still in
+   * flight are dropped, as they would be served by the same frame anyway.
+   */
+  public void requestCropFrame() {
+    final CameraCaptureSession session = captureSession;
+    final CaptureRequest request = cropRequest;
+    if (session == null || request == null || !cropFramePending.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      session.capture(request, cropCaptureCallback, backgroundHandler);
+    } catch (final CameraAccessException | IllegalStateException e) {
+      cropFramePending.set(false);
+      LOGGER.e(e, "Exception!");
+    }
+  }
+
   /** Sets up member variables related to camera. */
   private void setUpCameraOutputs() {
     final Activity activity = getActivity();
@@ -351,6 +459,11 @@ public class CameraConnectionFragment extends Fragment {
       previewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), inputSize.getWidth(), inputSize.getHeight());
       //previewSize = chooseOptimalSizeRate(map.getOutputSizes(SurfaceTexture.class), inputSize.getWidth(), inputSize.getHeight());
 
+      yuvOutputSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+      // The preview and the YUV reader are both resized, so a size has to suit both of them.
+      supportedPreviewSizes = chooseSizesLike(intersectSizes(map.getOutputSizes(SurfaceTexture.class), yuvOutputSizes), previewSize);
+      updateAnalysisSize();
+
       // We fit the aspect ratio of TextureView to the size of preview we picked.
       final int orientation = getResources().getConfiguration().orientation;
       if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
@@ -368,7 +481,105 @@ public class CameraConnectionFragment extends Fragment {
       throw new IllegalStateException(getString(R.string.tfe_od_camera_error));
     }
 
-    cameraConnectionCallback.onPreviewSizeChosen(previewSize, sensorOrientation);
+    cameraConnectionCallback.onPreviewSizeChosen(analysisSize, sensorOrientation);
+  }
+
+  /** Picks the analysis stream size for the current {@link #previewSize}. */
+  private void updateAnalysisSize() {
+    analysisSize = previewSize;
+    if (desiredAnalysisSize != null) {
+      final Size size = chooseAnalysisSize(yuvOutputSizes, previewSize, desiredAnalysisSize.getWidth());
+      if (size != null) {
+        analysisSize = size;
+        LOGGER.i("Analysis size: " + analysisSize.getWidth() + "x" + analysisSize.getHeight());
+      } else {
+        LOGGER.w("No analysis size matches the preview, falling back to a single stream");
+      }
+    }
+  }
+
+  /** Returns the sizes of {@code first} that are in {@code second} as well. */
+  private static Size[] intersectSizes(final Size[] first, final Size[] second) {
+    final List<Size> sizes = new ArrayList<Size>();
+    final List<Size> others = Arrays.asList(second);
+    for (final Size option : first) {
+      if (others.contains(option)) {
+        sizes.add(option);
+      }
+    }
+    return sizes.toArray(new Size[0]);
+  }
+
+  /** Returns the sizes of {@code choices} that are big enough and have the aspect ratio of {@code size}. */
+  private static Size[] chooseSizesLike(final Size[] choices, final Size size) {
+    final List<Size> sizes = new ArrayList<Size>();
+    for (final Size option : choices) {
+      final boolean sameAspectRatio =
+          (long) option.getWidth() * size.getHeight() == (long) option.getHeight() * size.getWidth();
+      if (sameAspectRatio && Math.min(option.getWidth(), option.getHeight()) >= MINIMUM_PREVIEW_SIZE) {
+        sizes.add(option);
+      }
+    }
+    return sizes.toArray(new Size[0]);
+  }
+
+  /** The size the camera currently captures at, which is also the preview size. */
+  public Size getPreviewSize() {
+    return previewSize;
+  }
+
+  /**
+   * Preview sizes {@link #changePreviewSize} can switch between: those with the aspect ratio of the
+   * initial size, so the layout of the preview stays the same.
+   */
+  public Size[] getSupportedPreviewSizes() {
+    return supportedPreviewSizes;
+  }
+
+  /**
+   * Rebuilds the capture session at {@code size} while keeping the camera open. The connection
+   * callback is told about the new size before any frame of it arrives.
+   */
+  public void changePreviewSize(final Size size) {
+    final Handler handler = backgroundHandler;
+    if (handler == null) {
+      return;
+    }
+    handler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              cameraOpenCloseLock.acquire();
+            } catch (final InterruptedException e) {
+              LOGGER.e(e, "Exception!");
+              return;
+            }
+            try {
+              if (null == cameraDevice || size.equals(previewSize)) {
+                return;
+              }
+              LOGGER.i("Changing preview size to " + size.getWidth() + "x" + size.getHeight());
+              closeSession();
+              previewSize = size;
+              updateAnalysisSize();
+              cameraConnectionCallback.onPreviewSizeChosen(analysisSize, sensorOrientation);
+              final Activity activity = getActivity();
+              if (activity != null) {
+                activity.runOnUiThread(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        configureTransform(textureView.getWidth(), textureView.getHeight());
+                      }
+                    });
+              }
+              createCameraPreviewSession();
+            } finally {
+              cameraOpenCloseLock.release();
+            }
+          }
+        });
   }
 
   /** Opens the camera specified by {@link CameraConnectionFragment#cameraId}. */
@@ -402,10 +613,7 @@ public class CameraConnectionFragment extends Fragment {
         cameraDevice.close();
         cameraDevice = null;
       }
-      if (null != previewReader) {
-        previewReader.close();
-        previewReader = null;
-      }
+      closeSession();
     } catch (final InterruptedException e) {
       throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
     } finally {
@@ -413,6 +621,24 @@ public class CameraConnectionFragment extends Fragment {
     }
   }
 
+  /** Closes the capture session and its readers, but not the camera. */
+  private void closeSession() {
+    if (null != captureSession) {
+      captureSession.close();
+      captureSession = null;
+    }
+    if (null != previewReader) {
+      previewReader.close();
+      previewReader = null;
+    }
+    if (null != cropReader) {
+      cropReader.close();
+      cropReader = null;
+    }
+    cropRequest = null;
+    cropFramePending.set(false);
+  }
+
   /** Starts a background thread and its {@link Handler}. */
   private void startBackgroundThread() {
     backgroundThread = new HandlerThread("ImageListener");
@@ -453,14 +679,31 @@ public class CameraConnectionFragment extends Fragment {
       // Create the reader for the preview frames.
       previewReader =
           ImageReader.newInstance(
-              previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+              analysisSize.getWidth(), analysisSize.getHeight(), ImageFormat.YUV_420_888, 2);
 
       previewReader.setOnImageAvailableListener(imageListener, backgroundHandler);
       previewRequestBuilder.addTarget(previewReader.getSurface());
 
+      final List<Surface> outputs = new ArrayList<Surface>(Arrays.asList(surface, previewReader.getSurface()));
+      final CaptureRequest.Builder cropRequestBuilder;
+      if (hasCropStream()) {
+        // Full resolution frames are only captured on request, the repeating request doesn't
+        // target this reader.
+        cropReader =
+            ImageReader.newInstance(
+                previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+        cropReader.setOnImageAvailableListener(cropImageListener, backgroundHandler);
+        cropRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+        cropRequestBuilder.addTarget(surface);
+        cropRequestBuilder.addTarget(cropReader.getSurface());
+        outputs.add(cropReader.getSurface());
+      } else {
+        cropRequestBuilder = null;
+      }
+
       // Here, we create a CameraCaptureSession for camera preview.
       cameraDevice.createCaptureSession(
-          Arrays.asList(surface, previewReader.getSurface()),
+          outputs,
           new CameraCaptureSession.StateCallback() {
 
             @Override
@@ -481,6 +724,15 @@ public class CameraConnectionFragment extends Fragment {
                 previewRequestBuilder.set(
                     CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
 
+                if (cropRequestBuilder != null) {
+                  cropRequestBuilder.set(
+                      CaptureRequest.CONTROL_AF_MODE,
+                      CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                  cropRequestBuilder.set(
+                      CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                  cropRequest = cropRequestBuilder.build();
+                }
+
                 // Finally, we start displaying the camera preview.
                 previewRequest = previewRequestBuilder.build();
                 captureSession.setRepeatingRequest(
@@ -543,6 +795,11 @@ public class CameraConnectionFragment extends Fragment {
     void onPreviewSizeChosen(Size size, int cameraRotation);
   }
 
+  /** Called on the camera thread with the result of every preview capture. */
+  public interface CaptureResultListener {
+    void onCaptureCompleted(TotalCaptureResult result);
+  }
+
   /** Compares two {@code Size}s based on their areas. */
   static class CompareSizesByArea implements Comparator<Size> {
     @Override
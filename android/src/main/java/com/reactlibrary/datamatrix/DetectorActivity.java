@@ -17,6 +17,7 @@
 package com.reactlibrary.datamatrix;
 
 import android.content.Context;
+import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
@@ -24,6 +25,7 @@ import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Size;
 import android.util.TypedValue;
@@ -37,15 +39,23 @@ import com.reactlibrary.datamatrix.customview.OverlayView.DrawCallback;
 import com.reactlibrary.datamatrix.env.BorderedText;
 import com.reactlibrary.datamatrix.env.ImageUtils;
 import com.reactlibrary.datamatrix.env.Logger;
+import com.reactlibrary.datamatrix.env.YuvFrame;
+import com.reactlibrary.datamatrix.pipeline.PipelineStage;
+import com.reactlibrary.datamatrix.pipeline.PooledFrame;
+import com.reactlibrary.datamatrix.pipeline.SceneChangeDetector;
+import com.reactlibrary.datamatrix.pipeline.StartupGraph;
 import com.reactlibrary.datamatrix.tflite.Classifier;
-import com.reactlibrary.datamatrix.tflite.TFLiteObjectDetectionAPIModel;
+import com.reactlibrary.datamatrix.tflite.DecodeCache;
+import com.reactlibrary.datamatrix.tflite.DecodeLadder;
+import com.reactlibrary.datamatrix.tflite.DecodeScheduler;
+import com.reactlibrary.datamatrix.tflite.RoiDetector;
+import com.reactlibrary.datamatrix.tflite.TFLiteDetectorPool;
+import com.reactlibrary.datamatrix.tflite.TiledDetector;
 import com.reactlibrary.datamatrix.tracking.MultiBoxTracker;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -56,21 +66,107 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     private static final int TF_OD_API_INPUT_SIZE = 300;
     private static final boolean TF_OD_API_IS_QUANTIZED = false;
+    // Interpreters sharing the model and the threads of each. One with four threads matches the
+    // single detector; on 8 core devices e.g. two with two threads each can be compared against
+    // it through the logged pool timings.
+    private static final int TF_OD_API_INTERPRETERS = 1;
+    private static final int TF_OD_API_THREADS_PER_INTERPRETER = 4;
+    // Detect on overlapping tiles besides the whole frame, so small codes keep enough pixels. The
+    // grid adapts to TILED_DETECTION_BUDGET_MS and replaces the adaptive capture size.
+    private static final boolean TILED_DETECTION = false;
+    private static final float TILED_DETECTION_BUDGET_MS = 200;
+    // Once codes are tracked, detect only in regions around them at close to native resolution,
+    // and on the whole frame every FULL_DETECTION_INTERVAL detections to find new codes.
+    private static final boolean ROI_DETECTION = true;
+    private static final int FULL_DETECTION_INTERVAL = 5;
     private static final String TF_OD_API_MODEL_FILE = "detect.tflite";
     private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labelmap.txt";
     private static final DetectorMode MODE = DetectorMode.TF_OD_API;
     private static final boolean MAINTAIN_ASPECT = false;
     private static final Size DESIRED_PREVIEW_SIZE = new Size(3264, 1836 );
+    // Decode crops straight from the Y plane instead of a full-resolution ARGB copy of the frame.
+    private static final boolean DECODE_FROM_LUMINANCE = true;
+    // With luminance decoding, sample the detector input straight from the YUV planes into the
+    // model's input buffer instead of going through croppedBitmap.
+    private static final boolean FUSED_PREPROCESSING = true;
+    // Detect on a small analysis stream and only capture full resolution frames to decode what it
+    // finds. Needs the Camera2 API, the preview is still DESIRED_PREVIEW_SIZE.
+    private static final boolean DUAL_STREAM = false;
+    private static final Size DESIRED_ANALYSIS_SIZE = new Size(640, 480);
+    // Step the Camera2 capture size down when frames take longer than TARGET_LATENCY_MS from
+    // arrival to results, and back up when there's headroom but codes fail to decode.
+    private static final boolean ADAPTIVE_RESOLUTION = true;
+    private static final long TARGET_LATENCY_MS = 250;
+    // Reuse the last results instead of detecting again while the scene doesn't change, but run a
+    // full pass at least every SCENE_REFRESH_INTERVAL_MS.
+    private static final boolean SCENE_CHANGE_GATING = true;
+    private static final float SCENE_CHANGE_THRESHOLD = 4.0f;
+    private static final long SCENE_REFRESH_INTERVAL_MS = 2000;
+    // Move the tracked boxes with optical flow on every frame and only detect every
+    // DETECTION_INTERVAL frames, or sooner once the flow follows less than MIN_FLOW_FOLLOWED of
+    // the tracks.
+    private static final boolean OPTICAL_FLOW = true;
+    private static final int DETECTION_INTERVAL = 3;
+    private static final float MIN_FLOW_FOLLOWED = 0.8f;
+    // Time spent decoding per frame, best scoring boxes first. Boxes that don't fit wait for the
+    // next frames, up to DECODE_MAX_ROLLOVER_FRAMES.
+    private static final float DECODE_BUDGET_MS = 40;
+    private static final int DECODE_MAX_ROLLOVER_FRAMES = 3;
+    // Boxes overlapping a code decoded earlier by more than DECODE_CACHE_IOU reuse it instead of
+    // being decoded. Codes no box covered for DECODE_CACHE_TTL_MS are forgotten, and each is decoded
+    // again every DECODE_CACHE_REVERIFY_MS in case another code took its place.
+    private static final boolean DECODE_CACHE = true;
+    private static final float DECODE_CACHE_IOU = 0.5f;
+    private static final long DECODE_CACHE_TTL_MS = 1000;
+    private static final long DECODE_CACHE_REVERIFY_MS = 2000;
+    // Preprocessing tried on a crop until one decodes, cheapest first. The first stage is tried on
+    // every box, the rest only with budget left over; the logged wins per ms tell which to keep.
+    private static final DecodeLadder.Stage[] DECODE_LADDER = {
+            DecodeLadder.Stage.PLAIN,
+            DecodeLadder.Stage.CONTRAST_STRETCH,
+            DecodeLadder.Stage.ADAPTIVE,
+            DecodeLadder.Stage.OTSU,
+            DecodeLadder.Stage.CLAHE,
+            DecodeLadder.Stage.INVERTED,
+            DecodeLadder.Stage.ROTATED_90
+    };
+    // Decode on a stage of its own, so the next frame is detected while this one's boxes decode.
+    // Jobs wait in a queue of DECODE_QUEUE_CAPACITY, newer frames replace older ones. One worker,
+    // the boxes of its frame are decoded in parallel by DECODER_POOL_SIZE barcode detectors.
+    private static final boolean PIPELINED_DECODING = true;
+    private static final int DECODE_WORKERS = 1;
+    private static final int DECODE_QUEUE_CAPACITY = 1;
+    static final int DECODER_POOL_SIZE = 3;
     public static float desireScreenRate=0;
+    // Caps the detections per frame for this session, 0 or missing for all the model outputs.
+    public static final String EXTRA_MAX_DETECTIONS = "maxDetections";
 
     private static final float TEXT_SIZE_DIP = 10;
     OverlayView trackingOverlay;
     private Integer sensorOrientation;
-    private Classifier detector;
+    private static final String STARTUP_DETECTOR = "detector";
+    private static final String STARTUP_TILED_DETECTOR = "tiled detector";
+    // Set by startup phases, detection only runs once they're complete.
+    private volatile Classifier detector;
+    private volatile TiledDetector tiledDetector;
+    private volatile RoiDetector roiDetector;
     private Bitmap rgbFrameBitmap = null;
     private Bitmap croppedBitmap = null;
     private Bitmap cropCopyBitmap = null;
-    private boolean computingDetection = false;
+    private int[] croppedRgbBytes = null;
+    private int[] rgbBytes = null;
+    private int framesSinceDetection = 0;
+    private int detectionsSinceFullPass = 0;
+    // Detections waiting for the next full resolution frame, in analysis frame coordinates.
+    private List<Classifier.Recognition> pendingDetections = new ArrayList<Classifier.Recognition>();
+    private final SceneChangeDetector sceneChangeDetector = new SceneChangeDetector(SCENE_CHANGE_THRESHOLD, SCENE_REFRESH_INTERVAL_MS);
+    private final DecodeLadder decodeLadder = new DecodeLadder(DECODE_LADDER);
+    private final DecodeCache decodeCache = new DecodeCache(DECODE_CACHE_IOU, DECODE_CACHE_TTL_MS, DECODE_CACHE_REVERIFY_MS);
+    private final DecodeScheduler decodeScheduler = new DecodeScheduler(DECODE_BUDGET_MS, DECODE_MAX_ROLLOVER_FRAMES, DECODER_POOL_SIZE);
+    // Results of the last full pass, reused for frames of an unchanged scene.
+    private volatile List<Classifier.Recognition> lastResults = new ArrayList<Classifier.Recognition>();
+    private final PipelineStage<DecodeJob> decodeStage =
+            new PipelineStage<DecodeJob>("decode", DECODE_WORKERS, DECODE_QUEUE_CAPACITY, this::decode, job -> job.frame.release());
     private long timestamp = 0;
     private Matrix frameToCropTransform;
     private static Matrix cropToFrameTransform;
@@ -79,8 +175,67 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     public static Matrix getTransformMatrix(){
         return cropToFrameTransform;
     }
-    public static Map<String,Classifier.Recognition> cacheResults = new HashMap<>();
-    public static int cacheCounter = 0;
+
+    /**
+     * Creates the detector as configured above and runs it once on a blank frame, so the
+     * interpreters allocate their tensors now rather than on the first camera frame. Sessions
+     * share it through {@link ScannerResources#getDetector}.
+     */
+    static Classifier createDetector(final AssetManager assets) throws IOException {
+        final Classifier detector = TFLiteDetectorPool.create(assets, TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE, TF_OD_API_IS_QUANTIZED, TF_OD_API_INTERPRETERS, TF_OD_API_THREADS_PER_INTERPRETER);
+        final YuvFrame blank = YuvFrame.fromNv21(new byte[TF_OD_API_INPUT_SIZE * TF_OD_API_INPUT_SIZE * 3 / 2], TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE);
+        detector.detectImage(blank, new Matrix());
+        return detector;
+    }
+
+    @Override
+    protected void addStartupTasks(final StartupGraph startup) {
+        startup.addTask(
+                STARTUP_DETECTOR,
+                () -> {
+                    // Shared with other sessions, so it is reset to its defaults in onDestroy.
+                    final Classifier shared = ScannerResources.acquireDetector(this, this, getIntent().getIntExtra(EXTRA_MAX_DETECTIONS, 0), decodeLadder);
+                    if (isDestroyed()) {
+                        ScannerResources.releaseDetector(this);
+                    }
+                    if (ROI_DETECTION) {
+                        roiDetector = new RoiDetector(shared, TF_OD_API_INPUT_SIZE);
+                    }
+                    detector = shared;
+                });
+        if (TILED_DETECTION) {
+            startup.addTask(
+                    STARTUP_TILED_DETECTOR,
+                    () -> {
+                        tiledDetector = new TiledDetector(detector, TF_OD_API_INPUT_SIZE, TF_OD_API_INTERPRETERS, TILED_DETECTION_BUDGET_MS);
+                        // Destroyed while this ran, so onDestroy may have missed it.
+                        if (isDestroyed()) {
+                            tiledDetector.close();
+                        }
+                    },
+                    STARTUP_DETECTOR);
+        }
+    }
+
+    @Override
+    public synchronized void onDestroy() {
+        decodeStage.close();
+        final TiledDetector tiled = tiledDetector;
+        if (tiled != null) {
+            tiled.close();
+        }
+        ScannerResources.releaseDetector(this);
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onStartupFailed(final String phase, final Exception e) {
+        if (STARTUP_DETECTOR.equals(phase)) {
+            Toast toast = Toast.makeText(getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
+            toast.show();
+        }
+        super.onStartupFailed(phase, e);
+    }
 
     @Override
     public void onPreviewSizeChosen(final Size size, final int rotation) {
@@ -88,29 +243,15 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         borderedText = new BorderedText(textSizePx);
         borderedText.setTypeface(Typeface.MONOSPACE);
         tracker = new MultiBoxTracker(this);
+        // The detector loads in parallel, see addStartupTasks.
         int cropSize = TF_OD_API_INPUT_SIZE;
-        try {
-            detector = TFLiteObjectDetectionAPIModel.create(getAssets(), TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE, TF_OD_API_IS_QUANTIZED);
-            cropSize = TF_OD_API_INPUT_SIZE;
-        } catch (final IOException e) {
-            e.printStackTrace();
-            LOGGER.e(e, "Exception initializing classifier!");
-            Toast toast = Toast.makeText(getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-            toast.show();
-            finish();
-        }
 
         previewWidth = size.getWidth();
         previewHeight = size.getHeight();
 
-        sensorOrientation = rotation - getScreenOrientation();
-        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+        croppedRgbBytes = new int[cropSize * cropSize];
         croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
-
-        frameToCropTransform = ImageUtils.getTransformationMatrix(previewWidth, previewHeight, cropSize, cropSize, sensorOrientation, MAINTAIN_ASPECT);
-
-        cropToFrameTransform = new Matrix();
-        frameToCropTransform.invert(cropToFrameTransform);
+        configureFrameSize(rotation);
 
         trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
         trackingOverlay.addCallback(
@@ -123,70 +264,290 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                         }
                     }
                 });
-        tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
 
         ScheduledExecutorService scheduleTaskExecutor;
         scheduleTaskExecutor = Executors.newScheduledThreadPool(5);
         scheduleTaskExecutor.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {runOnUiThread(() -> {
-                    List<Classifier.Recognition> list = new ArrayList<Classifier.Recognition>(cacheResults.values());
-                    tracker.trackResults(list, 0);
-                    trackingOverlay.postInvalidate();
-                    cacheResults.clear();
-                    cacheCounter=0;
+                    LOGGER.i("Tracker: %s", tracker.getStatString());
+                    if (getFrameScheduler() != null) {
+                        LOGGER.i("Frame scheduler: %s", getFrameScheduler().getStatString());
+                    }
+                    LOGGER.i("Quality gate: %s", getQualityGate().getStatString());
+                    LOGGER.i("Scene change gating: %s", sceneChangeDetector.getStatString());
+                    LOGGER.i("Decode budget: %s", decodeScheduler.getStatString());
+                    LOGGER.i("Decode ladder: %s", decodeLadder.getStatString());
+                    if (DECODE_CACHE) {
+                        LOGGER.i("Decode cache: %s", decodeCache.getStatString());
+                    }
+                    if (decoderPool != null) {
+                        LOGGER.i("Decoder pool: %s", decoderPool.getStatString());
+                    }
+                    LOGGER.i("Stages: %s; %s", getStageStatString(), decodeStage.getStatString());
+                    if (detector != null) {
+                        LOGGER.i("Detector: %s", detector.getStatString());
+                    }
+                    if (tiledDetector != null) {
+                        LOGGER.i("Tiled detection: %s", tiledDetector.getStatString());
+                    }
+                    if (roiDetector != null) {
+                        LOGGER.i("Region detection: %s", roiDetector.getStatString());
+                    }
                 });
             }
         }, 0, 3, TimeUnit.SECONDS); // or .MINUTES, .HOURS etc.
     }
 
+    @Override
+    protected void onPreviewSizeChanged(final Size size, final int rotation) {
+        LOGGER.i("Detecting on %dx%d frames", previewWidth, previewHeight);
+        // Pending and cached boxes are in the coordinates of the old size.
+        pendingDetections = new ArrayList<Classifier.Recognition>();
+        tracker.reset();
+        lastResults = new ArrayList<Classifier.Recognition>();
+        sceneChangeDetector.reset();
+        decodeScheduler.reset();
+        decodeCache.reset();
+        rgbBytes = null;
+        configureFrameSize(rotation);
+    }
+
+    // Sets up everything that depends on the frame size.
+    private void configureFrameSize(final int rotation) {
+        sensorOrientation = rotation - getScreenOrientation();
+        if (!DECODE_FROM_LUMINANCE) {
+            rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+        }
+
+        frameToCropTransform = ImageUtils.getTransformationMatrix(previewWidth, previewHeight, TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, sensorOrientation, MAINTAIN_ASPECT);
+
+        final Matrix transform = new Matrix();
+        frameToCropTransform.invert(transform);
+        cropToFrameTransform = transform;
+
+        tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+    }
+
     @Override
     protected void processImage() {
         ++timestamp;
         final long currTimestamp = timestamp;
         //trackingOverlay.postInvalidate();
 
-       // if (computingDetection) {
-           // readyForNextImage();
-           // return;
-      //  }
-        computingDetection = true;
-
-        rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
-        readyForNextImage();
+        detect(getYuvFrame(), currTimestamp);
+    }
 
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+    // Too blurred to detect or decode in, but the boxes still follow the flow at the camera's rate.
+    @Override
+    protected void processSkippedImage() {
+        if (!OPTICAL_FLOW) {
+            return;
+        }
+        ++timestamp;
+        tracker.propagate(getYuvFrame().getLuminance(), timestamp);
+        trackingOverlay.postInvalidate();
+    }
 
-        runInBackground(() -> {
+    // Runs on the inference thread, which is the only one touching the bitmaps and pixel buffers.
+    private void detect(final YuvFrame frame, final long currTimestamp) {
+        if (OPTICAL_FLOW) {
+            final float followed = tracker.propagate(frame.getLuminance(), currTimestamp);
+            if (followed >= MIN_FLOW_FOLLOWED && ++framesSinceDetection < DETECTION_INTERVAL) {
+                // The boxes moved with the flow, their codes are known already.
+                trackingOverlay.postInvalidate();
+                return;
+            }
+            framesSinceDetection = 0;
+        }
 
-            final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap,rgbFrameBitmap);
+        final List<Classifier.Recognition> results;
+        if (SCENE_CHANGE_GATING && !sceneChangeDetector.needsFullPass(frame, SystemClock.uptimeMillis())) {
+            // Nothing moved since the last full pass, its results still hold.
+            trackResults(lastResults, currTimestamp);
+            return;
+        } else if (hasCropStream()) {
+            // Decoding needs the full resolution stream, newer detections replace older ones
+            // that are still waiting for it.
+            // Detections are recycled by the detector, keep copies until the crop frame arrives.
+            final List<Classifier.Recognition> detections = detectImage(frame);
+            pendingDetections = new ArrayList<Classifier.Recognition>(detections.size());
+            for (final Classifier.Recognition detection : detections) {
+                pendingDetections.add(new Classifier.Recognition(detection.getId(), detection.getTitle(), detection.getConfidence(), detection.getLocation()));
+            }
+            reportDecodeResults(pendingDetections.size(), 0);
+            if (!pendingDetections.isEmpty()) {
+                requestCropFrame();
+            }
+            results = new ArrayList<Classifier.Recognition>();
+        } else if (!DECODE_FROM_LUMINANCE) {
+            rgbFrameBitmap.setPixels(getRgbBytes(frame), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+            final Canvas canvas = new Canvas(croppedBitmap);
+            canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+            results = detector.recognizeImage(croppedBitmap, rgbFrameBitmap);
             cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
+        } else if (FUSED_PREPROCESSING && PIPELINED_DECODING) {
+            final List<Classifier.Recognition> detections = detectImage(frame);
+            reportDecodeResults(detections.size(), 0);
+            // Detections are recycled by the detector, the decode stage gets copies.
+            final List<Classifier.Recognition> copies = new ArrayList<Classifier.Recognition>(detections.size());
+            for (final Classifier.Recognition detection : detections) {
+                copies.add(new Classifier.Recognition(detection.getId(), detection.getTitle(), detection.getConfidence(), detection.getLocation()));
+            }
+            decodeStage.submit(new DecodeJob(getFrame().retain(), copies, currTimestamp));
+            // Until its codes are in, the boxes follow their predicted motion.
+            tracker.predict(currTimestamp);
+            trackingOverlay.postInvalidate();
+            return;
+        } else if (FUSED_PREPROCESSING) {
+            final List<Classifier.Recognition> detections = detectImage(frame);
+            results = decodeDetections(detections, frame, null);
+            reportDecodeResults(detections.size(), results.size());
+        } else {
+            // Only the detector input needs colour, so convert just the pixels it samples.
+            ImageUtils.convertYUV420ToARGB8888(frame, cropToFrameTransform, TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, croppedRgbBytes);
+            croppedBitmap.setPixels(croppedRgbBytes, 0, TF_OD_API_INPUT_SIZE, 0, 0, TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE);
+            results = detector.recognizeImage(croppedBitmap, frame.getLuminance());
+        }
+
+        lastResults = results;
+        trackResults(results, currTimestamp);
+    }
 
-            //final List<Classifier.Recognition> mappedRecognitions = new LinkedList<Classifier.Recognition>();
-            for (final Classifier.Recognition result : results) {
-                final RectF location = result.getLocation();
-                result.setLocation(location);
-                //mappedRecognitions.add(result);
-                cacheResults.put(result.getId(),result);
+    /** Detections of a frame waiting for the decode stage, which holds a reference to the frame. */
+    private static class DecodeJob {
+        final PooledFrame frame;
+        final List<Classifier.Recognition> detections;
+        final long timestamp;
+
+        DecodeJob(final PooledFrame frame, final List<Classifier.Recognition> detections, final long timestamp) {
+            this.frame = frame;
+            this.detections = detections;
+            this.timestamp = timestamp;
+        }
+    }
+
+    // Runs on the decode stage.
+    private void decode(final DecodeJob job) {
+        try {
+            final YuvFrame frame = job.frame.getYuvFrame();
+            if (frame.width != previewWidth || frame.height != previewHeight) {
+                // Detected before a capture size change, the boxes don't fit the tracker anymore.
+                return;
             }
+            final List<Classifier.Recognition> results = decodeDetections(job.detections, frame, null);
+            reportDecodeResults(0, results.size());
+            lastResults = results;
+            trackResults(results, job.timestamp);
+        } finally {
+            job.frame.release();
+        }
+    }
 
-            List<Classifier.Recognition> list = new ArrayList<Classifier.Recognition>(cacheResults.values());
-            tracker.trackResults(list, currTimestamp);
-            trackingOverlay.postInvalidate();
+    /**
+     * Decodes within the budget, taking codes of boxes already decoded from the cache by the track
+     * each box belongs to. {@code frameToTracker} maps the boxes into the tracker's coordinates,
+     * null if they are in them already.
+     */
+    private List<Classifier.Recognition> decodeDetections(final List<Classifier.Recognition> detections, final YuvFrame frame, final Matrix frameToTracker) {
+        if (!DECODE_CACHE) {
+            return detector.decodeDetections(detections, frame.getLuminance(), decodeScheduler);
+        }
+        final List<RectF> locations = new ArrayList<RectF>(detections.size());
+        for (final Classifier.Recognition detection : detections) {
+            final RectF location = detection.getLocation();
+            if (frameToTracker != null) {
+                frameToTracker.mapRect(location);
+            }
+            locations.add(location);
+        }
+        final int[] trackIds = tracker.getTrackIds(locations);
+        final List<Classifier.Recognition> uncached = new ArrayList<Classifier.Recognition>(detections.size());
+        final List<Classifier.Recognition> cached = decodeCache.lookup(detections, trackIds, uncached);
+        for (final Classifier.Recognition result : cached) {
+            // Keeps the list in step if it was cleared while the code stayed in view.
+            CameraActivity.addBarcode(result.getId());
+        }
+        if (uncached.isEmpty()) {
+            return cached;
+        }
+        final List<Classifier.Recognition> decoded = detector.decodeDetections(uncached, frame.getLuminance(), decodeScheduler);
+        decodeCache.put(decoded, detections, trackIds);
+        return DecodeCache.merge(cached, decoded);
+    }
+
+    private List<Classifier.Recognition> detectImage(final YuvFrame frame) {
+        if (roiDetector != null && ++detectionsSinceFullPass < FULL_DETECTION_INTERVAL) {
+            final List<RectF> tracked = tracker.getTrackedLocations();
+            if (!tracked.isEmpty()) {
+                return roiDetector.detect(frame, tracked, sensorOrientation);
+            }
+        }
+        detectionsSinceFullPass = 0;
+        if (tiledDetector != null) {
+            return tiledDetector.detect(frame, sensorOrientation);
+        }
+        return detector.detectImage(frame, cropToFrameTransform);
+    }
 
-            //if(cacheCounter>3){
-                //cacheCounter=0;
-                //cacheResults.clear();
-            //}else{
-                //cacheCounter++;
-           //}
-            //computingDetection = false;
+    @Override
+    protected void processCropFrame(final PooledFrame frame) {
+        if (pendingDetections.isEmpty()) {
+            return;
+        }
+        final YuvFrame cropFrame = frame.getYuvFrame();
+        final Matrix analysisToCrop = new Matrix();
+        analysisToCrop.setScale(cropFrame.width / (float) previewWidth, cropFrame.height / (float) previewHeight);
+        final Matrix cropToAnalysis = new Matrix();
+        analysisToCrop.invert(cropToAnalysis);
+
+        final List<Classifier.Recognition> detections = new ArrayList<Classifier.Recognition>(pendingDetections.size());
+        for (final Classifier.Recognition detection : pendingDetections) {
+            final RectF location = detection.getLocation();
+            analysisToCrop.mapRect(location);
+            detections.add(new Classifier.Recognition(detection.getId(), detection.getTitle(), detection.getConfidence(), location));
+        }
+        pendingDetections = new ArrayList<Classifier.Recognition>();
+
+        // Within the budget and through the cache like the analysis frames, only in crop coordinates.
+        final List<Classifier.Recognition> results = decodeDetections(detections, cropFrame, cropToAnalysis);
+        reportDecodeResults(0, results.size());
+        if (!results.isEmpty()) {
+            final List<Classifier.Recognition> merged = new ArrayList<Classifier.Recognition>(lastResults);
+            merged.addAll(results);
+            lastResults = merged;
+        }
+        for (final Classifier.Recognition result : results) {
+            final RectF location = result.getLocation();
+            cropToAnalysis.mapRect(location);
+            result.setLocation(location);
+        }
+        trackResults(results, timestamp);
+    }
 
-            //runOnUiThread(() -> {
+    // Called from the inference thread and the decode stage, the tracker locks itself.
+    private void trackResults(final List<Classifier.Recognition> results, final long currTimestamp) {
+        tracker.trackResults(results, currTimestamp);
+        trackingOverlay.postInvalidate();
+    }
 
-            //});
-        });
+    private int[] getRgbBytes(final YuvFrame frame) {
+        if (rgbBytes == null) {
+            rgbBytes = new int[previewWidth * previewHeight];
+        }
+        getYuvConverter().convertToArgb(frame, rgbBytes);
+        return rgbBytes;
+    }
+
+    @Override
+    protected long getTargetFrameLatencyMs() {
+        // Tiling adapts to load on its own, changing the capture size as well would fight it.
+        return ADAPTIVE_RESOLUTION && !TILED_DETECTION ? TARGET_LATENCY_MS : 0;
+    }
+
+    @Override
+    protected Size getDesiredAnalysisFrameSize() {
+        return DUAL_STREAM ? DESIRED_ANALYSIS_SIZE : null;
     }
 
     @Override
@@ -209,12 +570,20 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     @Override
     protected void setUseNNAPI(final boolean isChecked) {
-        runInBackground(() -> detector.setUseNNAPI(isChecked));
+        runInBackground(() -> {
+            if (detector != null) {
+                detector.setUseNNAPI(isChecked);
+            }
+        });
     }
 
     @Override
     protected void setNumThreads(final int numThreads) {
-        runInBackground(() -> detector.setNumThreads(numThreads));
+        runInBackground(() -> {
+            if (detector != null) {
+                detector.setNumThreads(numThreads);
+            }
+        });
     }
 
     private static void setScreenResolution(Context context)
@@ -0,0 +1,168 @@
+package com.reactlibrary.datamatrix;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+import com.reactlibrary.datamatrix.env.Logger;
+import com.reactlibrary.datamatrix.tflite.BarcodeDecoderPool;
+import com.reactlibrary.datamatrix.tflite.Classifier;
+import com.reactlibrary.datamatrix.tflite.DecodeLadder;
+
+import org.opencv.android.OpenCVLoader;
+
+import java.io.IOException;
+
+/**
+ * Resources that every scanner session needs and that are expensive to set up: the OpenCV native
+ * library, the GMS barcode detectors and the TFLite detector with its model and labels. Each is
+ * created once per process, either ahead of time by {@link #prepare} or by the first session that
+ * asks for it, and shared by all later sessions.
+ */
+public final class ScannerResources {
+  private static final Logger LOGGER = new Logger();
+
+  /** Told when {@link #prepare} is done. */
+  public interface PrepareCallback {
+    void onPrepared(long elapsedMs);
+
+    void onError(Exception e);
+  }
+
+  // One lock per resource, so a session waiting for one isn't held up by another being prepared.
+  private static final Object openCvLock = new Object();
+  private static final Object barcodeDetectorLock = new Object();
+  private static final Object decoderPoolLock = new Object();
+  private static final Object detectorLock = new Object();
+
+  private static Boolean openCvLoaded;
+  private static BarcodeDetector barcodeDetector;
+  private static BarcodeDecoderPool decoderPool;
+  private static Classifier detector;
+  // The session whose detection cap and decode ladder the detector is set to, if any.
+  private static Object detectorSession;
+
+  private ScannerResources() {}
+
+  /** Loads and warms all resources on a background thread. */
+  public static void prepare(final Context context, final PrepareCallback callback) {
+    final Context appContext = context.getApplicationContext();
+    new Thread(
+            () -> {
+              final long start = SystemClock.uptimeMillis();
+              try {
+                loadOpenCv();
+                getBarcodeDetector(appContext);
+                getDecoderPool(appContext);
+                getDetector(appContext);
+              } catch (final IOException | RuntimeException e) {
+                LOGGER.e(e, "Preparing the scanner failed");
+                callback.onError(e);
+                return;
+              }
+              final long elapsedMs = SystemClock.uptimeMillis() - start;
+              LOGGER.i("Scanner prepared in %dms", elapsedMs);
+              callback.onPrepared(elapsedMs);
+            },
+            "ScannerPrepare")
+        .start();
+  }
+
+  /** Returns whether the OpenCV native library could be loaded, loading it the first time. */
+  public static boolean loadOpenCv() {
+    synchronized (openCvLock) {
+      if (openCvLoaded == null) {
+        final long start = SystemClock.uptimeMillis();
+        openCvLoaded = OpenCVLoader.initDebug();
+        if (openCvLoaded) {
+          LOGGER.i("OpenCV loaded in %dms", SystemClock.uptimeMillis() - start);
+        } else {
+          LOGGER.e("Unable to load OpenCV");
+        }
+      }
+      return openCvLoaded;
+    }
+  }
+
+  /** Returns the shared Data Matrix detector, creating it the first time. */
+  public static BarcodeDetector getBarcodeDetector(final Context context) {
+    synchronized (barcodeDetectorLock) {
+      if (barcodeDetector == null) {
+        final long start = SystemClock.uptimeMillis();
+        barcodeDetector =
+            new BarcodeDetector.Builder(context.getApplicationContext())
+                .setBarcodeFormats(Barcode.DATA_MATRIX)
+                .build();
+        // Waits for the native detector, which may still be downloading on first use.
+        LOGGER.i(
+            "Barcode detector %s in %dms",
+            barcodeDetector.isOperational() ? "ready" : "not operational yet",
+            SystemClock.uptimeMillis() - start);
+      }
+      return barcodeDetector;
+    }
+  }
+
+  /**
+   * Returns the shared pool of barcode detectors decoding crops in parallel, creating it the first
+   * time, see {@link DetectorActivity#DECODER_POOL_SIZE}.
+   */
+  public static BarcodeDecoderPool getDecoderPool(final Context context) {
+    synchronized (decoderPoolLock) {
+      if (decoderPool == null) {
+        final long start = SystemClock.uptimeMillis();
+        decoderPool = new BarcodeDecoderPool(context, DetectorActivity.DECODER_POOL_SIZE);
+        LOGGER.i("Decoder pool of %d created in %dms", decoderPool.getSize(), SystemClock.uptimeMillis() - start);
+      }
+      return decoderPool;
+    }
+  }
+
+  /**
+   * Returns the shared TFLite detector, loading the model and labels and warming the interpreters
+   * the first time, see {@link DetectorActivity#createDetector}.
+   */
+  public static Classifier getDetector(final Context context) throws IOException {
+    synchronized (detectorLock) {
+      if (detector == null) {
+        final long start = SystemClock.uptimeMillis();
+        detector = DetectorActivity.createDetector(context.getAssets());
+        LOGGER.i("Detector loaded in %dms", SystemClock.uptimeMillis() - start);
+      }
+      return detector;
+    }
+  }
+
+  /**
+   * Returns the shared TFLite detector set to the detection cap and decode ladder of {@code
+   * session}, which it keeps until {@link #releaseDetector} or until another session acquires it.
+   */
+  public static Classifier acquireDetector(
+      final Context context, final Object session, final int maxDetections, final DecodeLadder decodeLadder)
+      throws IOException {
+    synchronized (detectorLock) {
+      final Classifier shared = getDetector(context);
+      shared.setMaxDetections(maxDetections);
+      shared.setDecodeLadder(decodeLadder);
+      detectorSession = session;
+      return shared;
+    }
+  }
+
+  /**
+   * Resets the shared detector to its defaults when it is still set for {@code session}. A session
+   * that ends after a newer one acquired the detector, e.g. an activity being recreated, leaves it
+   * alone.
+   */
+  public static void releaseDetector(final Object session) {
+    synchronized (detectorLock) {
+      if (detector == null || detectorSession != session) {
+        return;
+      }
+      detector.setMaxDetections(0);
+      detector.setDecodeLadder(null);
+      detectorSession = null;
+    }
+  }
+}
@@ -21,6 +21,7 @@ import android.os.Environment;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
 
 /** Utility class for manipulating images. */
 public class ImageUtils {
@@ -31,6 +32,16 @@ public class ImageUtils {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = new Logger();
 
+  // Values of the matrices passed to the sampling conversions, reused per thread so converting
+  // every frame doesn't allocate.
+  private static final ThreadLocal<float[]> MATRIX_VALUES =
+      new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+          return new float[9];
+        }
+      };
+
   /**
    * Utility method to compute the allocated size in bytes of a YUV420SP image of the given
    * dimensions.
@@ -152,6 +163,135 @@ public class ImageUtils {
     }
   }
 
+  /** Converts a whole frame of either layout described by {@link YuvFrame}. */
+  public static void convertYUV420ToARGB8888(YuvFrame frame, int[] out) {
+    if (frame.isSinglePlane()) {
+      convertYUV420SPToARGB8888(frame.yData, frame.width, frame.height, out);
+    } else {
+      convertYUV420ToARGB8888(
+          frame.yData,
+          frame.uData,
+          frame.vData,
+          frame.width,
+          frame.height,
+          frame.yRowStride,
+          frame.uvRowStride,
+          frame.uvPixelStride,
+          out);
+    }
+  }
+
+  /**
+   * Converts only the pixels of a destination image whose footprint in a YUV420 frame is given by
+   * {@code dstToSrc}, using nearest neighbour sampling like an unfiltered {@code
+   * Canvas.drawBitmap}. This avoids converting the whole frame when only a scaled down copy of it
+   * is needed.
+   *
+   * @param dstToSrc Maps destination pixel coordinates into source frame coordinates.
+   */
+  public static void convertYUV420ToARGB8888(
+      YuvFrame frame, Matrix dstToSrc, int dstWidth, int dstHeight, int[] out) {
+    final float[] m = MATRIX_VALUES.get();
+    dstToSrc.getValues(m);
+    int yp = 0;
+    for (int j = 0; j < dstHeight; j++) {
+      for (int i = 0; i < dstWidth; i++) {
+        out[yp++] = sampleARGB8888(frame, m, i, j);
+      }
+    }
+  }
+
+  /**
+   * Fused variant of converting a frame with {@link #convertYUV420ToARGB8888(YuvFrame, Matrix,
+   * int, int, int[])} and packing the pixels into a model input: RGB values are written straight
+   * into {@code out}, either as bytes or normalized as {@code (value - mean) / std} floats. No
+   * intermediate bitmap or pixel array is needed.
+   */
+  public static void convertYUV420ToTensor(
+      YuvFrame frame,
+      Matrix dstToSrc,
+      int dstWidth,
+      int dstHeight,
+      boolean quantized,
+      float mean,
+      float std,
+      ByteBuffer out) {
+    final float[] m = MATRIX_VALUES.get();
+    dstToSrc.getValues(m);
+    out.rewind();
+    convertYUV420ToTensor(frame, m, dstWidth, dstHeight, quantized, mean, std, out);
+  }
+
+  /**
+   * Same as {@link #convertYUV420ToTensor(YuvFrame, Matrix, int, int, boolean, float, float,
+   * ByteBuffer)}, with the matrix given as the values returned by {@link Matrix#getValues}, so
+   * callers can reuse the array. Writes at the current position of {@code out}, so several images
+   * can be packed one after the other into a batched input.
+   */
+  public static void convertYUV420ToTensor(
+      YuvFrame frame,
+      float[] m,
+      int dstWidth,
+      int dstHeight,
+      boolean quantized,
+      float mean,
+      float std,
+      ByteBuffer out) {
+    for (int j = 0; j < dstHeight; j++) {
+      for (int i = 0; i < dstWidth; i++) {
+        final int pixelValue = sampleARGB8888(frame, m, i, j);
+        if (quantized) {
+          out.put((byte) ((pixelValue >> 16) & 0xFF));
+          out.put((byte) ((pixelValue >> 8) & 0xFF));
+          out.put((byte) (pixelValue & 0xFF));
+        } else {
+          out.putFloat((((pixelValue >> 16) & 0xFF) - mean) / std);
+          out.putFloat((((pixelValue >> 8) & 0xFF) - mean) / std);
+          out.putFloat(((pixelValue & 0xFF) - mean) / std);
+        }
+      }
+    }
+  }
+
+  /**
+   * Packs the first {@code count} ARGB8888 {@code pixels} into a model input the way {@link
+   * #convertYUV420ToTensor} does, at the current position of {@code out}.
+   */
+  public static void convertARGB8888ToTensor(
+      int[] pixels, int count, boolean quantized, float mean, float std, ByteBuffer out) {
+    for (int i = 0; i < count; ++i) {
+      final int pixelValue = pixels[i];
+      if (quantized) {
+        out.put((byte) ((pixelValue >> 16) & 0xFF));
+        out.put((byte) ((pixelValue >> 8) & 0xFF));
+        out.put((byte) (pixelValue & 0xFF));
+      } else {
+        out.putFloat((((pixelValue >> 16) & 0xFF) - mean) / std);
+        out.putFloat((((pixelValue >> 8) & 0xFF) - mean) / std);
+        out.putFloat(((pixelValue & 0xFF) - mean) / std);
+      }
+    }
+  }
+
+  // Returns the frame pixel under the center of destination pixel (i, j), mapped through the
+  // affine values m of a Matrix.
+  private static int sampleARGB8888(final YuvFrame frame, final float[] m, final int i, final int j) {
+    final float cx = i + 0.5f;
+    final float cy = j + 0.5f;
+    final int sx = clamp((int) (m[Matrix.MSCALE_X] * cx + m[Matrix.MSKEW_X] * cy + m[Matrix.MTRANS_X]), frame.width);
+    final int sy = clamp((int) (m[Matrix.MSKEW_Y] * cx + m[Matrix.MSCALE_Y] * cy + m[Matrix.MTRANS_Y]), frame.height);
+    final int uvOffset = frame.uvRowStride * (sy >> 1) + (sx >> 1) * frame.uvPixelStride;
+
+    return YUV2RGB(
+        0xff & frame.yData[frame.yRowStride * sy + sx],
+        0xff & frame.uData[frame.uOffset + uvOffset],
+        0xff & frame.vData[frame.vOffset + uvOffset]);
+  }
+
+  private static int clamp(final int value, final int size) {
+    return value < 0 ? 0 : (value >= size ? size - 1 : value);
+  }
+
   /**
    * Returns a transformation matrix from one reference frame into another. Handles cropping (if
    * maintaining aspect ratio is desired) and rotation.
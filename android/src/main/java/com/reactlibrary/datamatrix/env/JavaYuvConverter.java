@@ -0,0 +1,21 @@
+package com.reactlibrary.datamatrix.env;
+
+/** The fallback {@link YuvConverter}, implemented on the JVM. */
+public class JavaYuvConverter implements YuvConverter {
+  @Override
+  public void convertToArgb(final YuvFrame frame, final int[] out) {
+    ParallelYuvConverter.getInstance().convert(frame, out);
+  }
+
+  @Override
+  public void convertToGray(final YuvFrame frame, final byte[] out) {
+    for (int j = 0; j < frame.height; j++) {
+      System.arraycopy(frame.yData, j * frame.yRowStride, out, j * frame.width, frame.width);
+    }
+  }
+
+  @Override
+  public Backend getBackend() {
+    return Backend.JAVA;
+  }
+}
@@ -0,0 +1,76 @@
+package com.reactlibrary.datamatrix.env;
+
+import android.graphics.RectF;
+
+import java.util.Arrays;
+
+/**
+ * An 8-bit grayscale image backed by a luminance plane, e.g. the Y plane of a camera frame. Rows
+ * may be padded, so pixel (x, y) lives at {@code data[y * rowStride + x]}.
+ */
+public class LuminanceFrame {
+  private static final byte WHITE = (byte) 0xff;
+  private static final byte NEUTRAL_CHROMA = (byte) 0x80;
+
+  public final byte[] data;
+  public final int width;
+  public final int height;
+  public final int rowStride;
+
+  public LuminanceFrame(final byte[] data, final int width, final int height, final int rowStride) {
+    this.data = data;
+    this.width = width;
+    this.height = height;
+    this.rowStride = rowStride;
+  }
+
+  /**
+   * Copies the region around {@code rect} into a new tightly packed frame. Mirrors the geometry of
+   * the bitmap crop used for decoding: the region starts {@code margin} pixels above and left of
+   * the rect, is {@code extra} pixels larger than it (capped to the frame size) and anything
+   * outside the frame is white.
+   */
+  public LuminanceFrame crop(final RectF rect, final int margin, final int extra) {
+    final int cropWidth =
+        rect.width() + extra < width ? (int) (rect.width() + extra) : width;
+    final int cropHeight =
+        rect.height() + extra < height ? (int) (rect.height() + extra) : height;
+    final int left = (int) Math.floor(rect.left) - margin;
+    final int top = (int) Math.floor(rect.top) - margin;
+
+    final byte[] out = new byte[cropWidth * cropHeight];
+    for (int j = 0; j < cropHeight; j++) {
+      final int sy = top + j;
+      final int outRow = j * cropWidth;
+      if (sy < 0 || sy >= height) {
+        Arrays.fill(out, outRow, outRow + cropWidth, WHITE);
+        continue;
+      }
+      final int from = Math.max(0, -left);
+      final int to = Math.min(cropWidth, width - left);
+      if (from > 0) {
+        Arrays.fill(out, outRow, outRow + Math.min(from, cropWidth), WHITE);
+      }
+      if (to > from) {
+        System.arraycopy(data, sy * rowStride + left + from, out, outRow + from, to - from);
+      }
+      if (to < cropWidth) {
+        Arrays.fill(out, outRow + Math.max(to, 0), outRow + cropWidth, WHITE);
+      }
+    }
+    return new LuminanceFrame(out, cropWidth, cropHeight, cropWidth);
+  }
+
+  /**
+   * Packs this frame into an NV21 buffer with neutral chroma, which is how grayscale data is handed
+   * to decoders that only accept camera formats.
+   */
+  public byte[] toNv21() {
+    final byte[] nv21 = new byte[ImageUtils.getYUVByteSize(width, height)];
+    for (int j = 0; j < height; j++) {
+      System.arraycopy(data, j * rowStride, nv21, j * width, width);
+    }
+    Arrays.fill(nv21, width * height, nv21.length, NEUTRAL_CHROMA);
+    return nv21;
+  }
+}
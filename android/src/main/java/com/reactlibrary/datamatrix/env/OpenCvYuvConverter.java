@@ -0,0 +1,94 @@
+package com.reactlibrary.datamatrix.env;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link YuvConverter} on top of {@code Imgproc.cvtColor}. Frames are packed as NV21 into a
+ * reused {@link Mat} and converted by OpenCV's native code; all Mats and scratch buffers are kept
+ * between frames, so a converter is meant to be used by one thread at a time.
+ *
+ * <p>Frames arrive as Java arrays, and the Java bindings can't wrap those or the camera's plane
+ * buffers in a Mat, so every frame is repacked and copied in and out of native memory. That is as
+ * much work as {@link ParallelYuvConverter} does in total, so this backend is no faster unless
+ * measured to be on a given device.
+ */
+public class OpenCvYuvConverter implements YuvConverter {
+  private Mat yuvMat;
+  private Mat bgraMat;
+  private byte[] nv21;
+  private byte[] bgra;
+  private int width;
+  private int height;
+
+  @Override
+  public synchronized void convertToArgb(final YuvFrame frame, final int[] out) {
+    ensureCapacity(frame.width, frame.height);
+    yuvMat.put(0, 0, toNv21(frame));
+    // BGRA bytes read back as little endian ints are exactly ARGB8888.
+    Imgproc.cvtColor(yuvMat, bgraMat, Imgproc.COLOR_YUV2BGRA_NV21);
+    bgraMat.get(0, 0, bgra);
+    ByteBuffer.wrap(bgra).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(out, 0, width * height);
+  }
+
+  @Override
+  public void convertToGray(final YuvFrame frame, final byte[] out) {
+    // The Y plane already is the grayscale image, only row padding has to go.
+    if (frame.yRowStride == frame.width) {
+      System.arraycopy(frame.yData, 0, out, 0, frame.width * frame.height);
+      return;
+    }
+    for (int j = 0; j < frame.height; j++) {
+      System.arraycopy(frame.yData, j * frame.yRowStride, out, j * frame.width, frame.width);
+    }
+  }
+
+  @Override
+  public Backend getBackend() {
+    return Backend.OPENCV;
+  }
+
+  private void ensureCapacity(final int frameWidth, final int frameHeight) {
+    if (yuvMat != null && width == frameWidth && height == frameHeight) {
+      return;
+    }
+    if (yuvMat != null) {
+      yuvMat.release();
+      bgraMat.release();
+    }
+    width = frameWidth;
+    height = frameHeight;
+    yuvMat = new Mat(height + height / 2, width, CvType.CV_8UC1);
+    bgraMat = new Mat(height, width, CvType.CV_8UC4);
+    nv21 = new byte[width * (height + height / 2)];
+    bgra = new byte[width * height * 4];
+  }
+
+  // Repacks the frame as tightly strided NV21, unless it already is.
+  private byte[] toNv21(final YuvFrame frame) {
+    if (frame.isSinglePlane()
+        && frame.yRowStride == frame.width
+        && frame.vOffset == frame.width * frame.height
+        && frame.uOffset == frame.vOffset + 1
+        && frame.yData.length >= nv21.length) {
+      return frame.yData;
+    }
+    for (int j = 0; j < height; j++) {
+      System.arraycopy(frame.yData, j * frame.yRowStride, nv21, j * width, width);
+    }
+    int uvp = width * height;
+    for (int j = 0; j < height / 2; j++) {
+      final int row = frame.uvRowStride * j;
+      for (int i = 0; i < width / 2; i++) {
+        final int offset = row + i * frame.uvPixelStride;
+        nv21[uvp++] = frame.vData[frame.vOffset + offset];
+        nv21[uvp++] = frame.uData[frame.uOffset + offset];
+      }
+    }
+    return nv21;
+  }
+}
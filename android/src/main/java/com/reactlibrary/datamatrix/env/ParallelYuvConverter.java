@@ -0,0 +1,196 @@
+package com.reactlibrary.datamatrix.env;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts YUV420 frames to ARGB8888 by splitting them into row stripes that run in parallel on a
+ * {@link ForkJoinPool}. The per pixel math uses lookup tables for the fixed point products of
+ * {@code ImageUtils.YUV2RGB} and for the final clamp, and produces exactly the same pixels.
+ */
+public class ParallelYuvConverter {
+  private static final Logger LOGGER = new Logger();
+
+  // Stripes smaller than this many pixels aren't worth a task of their own.
+  private static final int MIN_STRIPE_PIXELS = 64 * 1024;
+
+  // Fixed point contributions of each 8-bit sample, see ImageUtils.YUV2RGB.
+  private static final int[] Y_TABLE = new int[256];
+  private static final int[] RV_TABLE = new int[256];
+  private static final int[] GV_TABLE = new int[256];
+  private static final int[] GU_TABLE = new int[256];
+  private static final int[] BU_TABLE = new int[256];
+
+  // Channel sums shifted right by 10 fall within [-259, 534]; offset by CLAMP_OFFSET this table
+  // maps them to the clamped 8-bit channel.
+  private static final int CLAMP_OFFSET = 384;
+  private static final int[] CLAMP_TABLE = new int[1024];
+
+  static {
+    for (int i = 0; i < 256; ++i) {
+      Y_TABLE[i] = 1192 * Math.max(i - 16, 0);
+      RV_TABLE[i] = 1634 * (i - 128);
+      GV_TABLE[i] = 833 * (i - 128);
+      GU_TABLE[i] = 400 * (i - 128);
+      BU_TABLE[i] = 2066 * (i - 128);
+    }
+    for (int i = 0; i < CLAMP_TABLE.length; ++i) {
+      CLAMP_TABLE[i] = Math.min(Math.max(i - CLAMP_OFFSET, 0), 255);
+    }
+  }
+
+  private static ParallelYuvConverter instance;
+
+  private final ForkJoinPool pool;
+
+  public ParallelYuvConverter(final int parallelism) {
+    pool = new ForkJoinPool(Math.max(1, parallelism));
+  }
+
+  /** Returns a shared converter with one worker per big core. */
+  public static synchronized ParallelYuvConverter getInstance() {
+    if (instance == null) {
+      final int bigCores = getBigCoreCount();
+      LOGGER.i("Converting frames on %d threads", bigCores);
+      instance = new ParallelYuvConverter(bigCores);
+    }
+    return instance;
+  }
+
+  /** Converts the whole frame into {@code out}, which is laid out like the frame. */
+  public void convert(final YuvFrame frame, final int[] out) {
+    convert(frame, 0, 0, frame.width, frame.height, out);
+  }
+
+  /**
+   * Converts only the pixels inside {@code [left, right) x [top, bottom)} of the frame. They are
+   * written to the same positions of {@code out}, which is laid out like the whole frame, and the
+   * rest of {@code out} is left untouched.
+   */
+  public void convert(
+      final YuvFrame frame,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom,
+      final int[] out) {
+    final int l = Math.max(0, left);
+    final int t = Math.max(0, top);
+    final int r = Math.min(frame.width, right);
+    final int b = Math.min(frame.height, bottom);
+    if (r <= l || b <= t) {
+      return;
+    }
+    final int rowsPerStripe = Math.max(1, MIN_STRIPE_PIXELS / (r - l));
+    pool.invoke(new StripeTask(frame, l, r, t, b, rowsPerStripe, out));
+  }
+
+  private static void convertRows(
+      final YuvFrame frame,
+      final int left,
+      final int right,
+      final int top,
+      final int bottom,
+      final int[] out) {
+    final byte[] yData = frame.yData;
+    final byte[] uData = frame.uData;
+    final byte[] vData = frame.vData;
+    final int uvPixelStride = frame.uvPixelStride;
+    for (int j = top; j < bottom; j++) {
+      final int pY = frame.yRowStride * j;
+      final int pUV = frame.uvRowStride * (j >> 1);
+      int op = j * frame.width + left;
+      for (int i = left; i < right; i++) {
+        final int uvOffset = pUV + (i >> 1) * uvPixelStride;
+        final int y = Y_TABLE[0xff & yData[pY + i]];
+        final int u = 0xff & uData[frame.uOffset + uvOffset];
+        final int v = 0xff & vData[frame.vOffset + uvOffset];
+
+        final int r = CLAMP_TABLE[((y + RV_TABLE[v]) >> 10) + CLAMP_OFFSET];
+        final int g = CLAMP_TABLE[((y - GV_TABLE[v] - GU_TABLE[u]) >> 10) + CLAMP_OFFSET];
+        final int b = CLAMP_TABLE[((y + BU_TABLE[u]) >> 10) + CLAMP_OFFSET];
+        out[op++] = 0xff000000 | (r << 16) | (g << 8) | b;
+      }
+    }
+  }
+
+  /** Splits its rows in half until they fit in one stripe. */
+  private static class StripeTask extends RecursiveAction {
+    private final YuvFrame frame;
+    private final int left;
+    private final int right;
+    private final int top;
+    private final int bottom;
+    private final int rowsPerStripe;
+    private final int[] out;
+
+    StripeTask(
+        final YuvFrame frame,
+        final int left,
+        final int right,
+        final int top,
+        final int bottom,
+        final int rowsPerStripe,
+        final int[] out) {
+      this.frame = frame;
+      this.left = left;
+      this.right = right;
+      this.top = top;
+      this.bottom = bottom;
+      this.rowsPerStripe = rowsPerStripe;
+      this.out = out;
+    }
+
+    @Override
+    protected void compute() {
+      if (bottom - top <= rowsPerStripe) {
+        convertRows(frame, left, right, top, bottom, out);
+        return;
+      }
+      // Keep stripes on even rows so both halves start on a fresh chroma row.
+      final int middle = (top + (bottom - top) / 2) & ~1;
+      final int split = middle > top ? middle : top + 1;
+      invokeAll(
+          new StripeTask(frame, left, right, top, split, rowsPerStripe, out),
+          new StripeTask(frame, left, right, split, bottom, rowsPerStripe, out));
+    }
+  }
+
+  /**
+   * Counts the cores whose maximum frequency is close to the fastest one, i.e. the big (and prime)
+   * cores of a big.LITTLE SoC. Falls back to all available processors when cpufreq can't be read.
+   */
+  public static int getBigCoreCount() {
+    final int cores = Runtime.getRuntime().availableProcessors();
+    final long[] frequencies = new long[cores];
+    long maxFrequency = 0;
+    for (int i = 0; i < cores; ++i) {
+      frequencies[i] =
+          readLong(new File("/sys/devices/system/cpu/cpu" + i + "/cpufreq/cpuinfo_max_freq"));
+      if (frequencies[i] <= 0) {
+        return cores;
+      }
+      maxFrequency = Math.max(maxFrequency, frequencies[i]);
+    }
+    int bigCores = 0;
+    for (final long frequency : frequencies) {
+      if (frequency * 4 >= maxFrequency * 3) {
+        ++bigCores;
+      }
+    }
+    return Math.max(1, bigCores);
+  }
+
+  private static long readLong(final File file) {
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      final String line = reader.readLine();
+      return line != null ? Long.parseLong(line.trim()) : -1;
+    } catch (final IOException | NumberFormatException e) {
+      return -1;
+    }
+  }
+}
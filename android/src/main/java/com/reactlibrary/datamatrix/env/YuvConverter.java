@@ -0,0 +1,31 @@
+package com.reactlibrary.datamatrix.env;
+
+/** Converts camera frames into the pixel formats the rest of the pipeline works on. */
+public interface YuvConverter {
+  /** Available implementations, see {@link #create(Backend, boolean)}. */
+  enum Backend {
+    /** {@link ParallelYuvConverter} plus plain row copies, always available. */
+    JAVA,
+    /** {@code Imgproc.cvtColor} on a copy of the frame, see {@link OpenCvYuvConverter}. */
+    OPENCV
+  }
+
+  /** Converts the whole frame into {@code out}, one ARGB8888 pixel per frame pixel. */
+  void convertToArgb(YuvFrame frame, int[] out);
+
+  /** Copies the luminance of the whole frame into {@code out}, tightly packed. */
+  void convertToGray(YuvFrame frame, byte[] out);
+
+  Backend getBackend();
+
+  /**
+   * Returns a converter for {@code backend}, falling back to the Java one if OpenCV's native
+   * library isn't loaded.
+   */
+  static YuvConverter create(final Backend backend, final boolean openCvLoaded) {
+    if (backend == Backend.OPENCV && openCvLoaded) {
+      return new OpenCvYuvConverter();
+    }
+    return new JavaYuvConverter();
+  }
+}
@@ -0,0 +1,60 @@
+package com.reactlibrary.datamatrix.env;
+
+/**
+ * Describes the planes of a YUV420 camera frame. Covers both the planar/semi-planar layouts
+ * delivered by Camera2 {@code ImageReader}s and the NV21 buffers of the legacy camera API, where
+ * all three planes live in one array and chroma is addressed through offsets.
+ */
+public class YuvFrame {
+  public final byte[] yData;
+  public final byte[] uData;
+  public final byte[] vData;
+  public final int uOffset;
+  public final int vOffset;
+  public final int width;
+  public final int height;
+  public final int yRowStride;
+  public final int uvRowStride;
+  public final int uvPixelStride;
+  private LuminanceFrame luminance;
+
+  public YuvFrame(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int uOffset,
+      final int vOffset,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    this.yData = yData;
+    this.uData = uData;
+    this.vData = vData;
+    this.uOffset = uOffset;
+    this.vOffset = vOffset;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+
+  /** Wraps a YUV420SP (NV21) buffer as delivered by {@code Camera.PreviewCallback}. */
+  public static YuvFrame fromNv21(final byte[] nv21, final int width, final int height) {
+    final int frameSize = width * height;
+    return new YuvFrame(nv21, nv21, nv21, frameSize + 1, frameSize, width, height, width, width, 2);
+  }
+
+  public boolean isSinglePlane() {
+    return yData == uData && yData == vData;
+  }
+
+  public LuminanceFrame getLuminance() {
+    if (luminance == null) {
+      luminance = new LuminanceFrame(yData, width, height, yRowStride);
+    }
+    return luminance;
+  }
+}
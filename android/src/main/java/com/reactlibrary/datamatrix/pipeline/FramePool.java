@@ -0,0 +1,50 @@
+package com.reactlibrary.datamatrix.pipeline;
+
+import com.reactlibrary.datamatrix.env.Logger;
+
+import java.util.ArrayDeque;
+
+/**
+ * A fixed set of reusable {@link PooledFrame}s. Camera callbacks copy each frame into a pooled
+ * buffer and hand the camera's own buffer back immediately; every pipeline stage that keeps the
+ * frame retains it and releases it when done, and the last release returns it here. When all
+ * buffers are in flight {@link #acquire()} returns null and the frame is dropped, which also bounds
+ * how many frames the pipeline can have in flight.
+ */
+public class FramePool {
+  private static final Logger LOGGER = new Logger();
+
+  private final ArrayDeque<PooledFrame> available;
+  private final int capacity;
+
+  public FramePool(final int capacity) {
+    this.capacity = capacity;
+    available = new ArrayDeque<PooledFrame>(capacity);
+    for (int i = 0; i < capacity; ++i) {
+      available.add(new PooledFrame(this));
+    }
+  }
+
+  /** Returns a free frame holding a single reference, or null if all frames are in flight. */
+  public synchronized PooledFrame acquire() {
+    final PooledFrame frame = available.poll();
+    if (frame == null) {
+      LOGGER.v("All %d pooled frames in flight", capacity);
+      return null;
+    }
+    frame.onAcquired();
+    return frame;
+  }
+
+  synchronized void recycle(final PooledFrame frame) {
+    available.add(frame);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public synchronized int getAvailableCount() {
+    return available.size();
+  }
+}
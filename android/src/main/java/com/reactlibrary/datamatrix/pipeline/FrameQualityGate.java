@@ -0,0 +1,136 @@
+package com.reactlibrary.datamatrix.pipeline;
+
+import android.hardware.camera2.CaptureResult;
+
+import com.reactlibrary.datamatrix.env.YuvFrame;
+
+/**
+ * Rejects frames that would most likely fail to decode before any inference runs on them: frames
+ * taken while auto focus is still scanning, and frames much blurrier than the recent ones. Blur is
+ * measured as the variance of the Laplacian of the Y plane, sampled on a coarse grid. As sharpness
+ * depends on the scene, frames are compared with a running average of recent scores rather than a
+ * fixed threshold. To never stall the pipeline, at most {@link #MAX_CONSECUTIVE_SKIPS} frames in a
+ * row are skipped.
+ */
+public class FrameQualityGate {
+  /** Outcome of {@link #evaluate(YuvFrame)}. */
+  public enum Decision {
+    PASS,
+    SKIP_FOCUS,
+    SKIP_BLUR
+  }
+
+  // Sharpness is sampled on a grid about this many points wide.
+  private static final int SAMPLES_PER_ROW = 160;
+  // Frames scoring below this fraction of the running average count as blurred.
+  private static final float BLUR_RATIO = 0.5f;
+  // Weight of a new score in the running average.
+  private static final float AVERAGE_WEIGHT = 0.1f;
+  private static final int MAX_CONSECUTIVE_SKIPS = 5;
+
+  // Written by the camera thread, read by the inference thread.
+  private volatile int afState = CaptureResult.CONTROL_AF_STATE_INACTIVE;
+
+  private float averageSharpness = -1;
+  private float lastSharpness;
+  private int consecutiveSkips;
+  private long framesPassed;
+  private long framesSkippedFocus;
+  private long framesSkippedBlur;
+
+  /** Feeds the auto focus state of the latest capture, see {@link CaptureResult#CONTROL_AF_STATE}. */
+  public void onCaptureResult(final CaptureResult result) {
+    final Integer state = result.get(CaptureResult.CONTROL_AF_STATE);
+    if (state != null) {
+      afState = state;
+    }
+  }
+
+  public synchronized Decision evaluate(final YuvFrame frame) {
+    final Decision decision = classify(frame);
+    if (decision != Decision.PASS && consecutiveSkips < MAX_CONSECUTIVE_SKIPS) {
+      ++consecutiveSkips;
+      if (decision == Decision.SKIP_FOCUS) {
+        ++framesSkippedFocus;
+      } else {
+        ++framesSkippedBlur;
+      }
+      return decision;
+    }
+    consecutiveSkips = 0;
+    ++framesPassed;
+    return Decision.PASS;
+  }
+
+  private Decision classify(final YuvFrame frame) {
+    final int state = afState;
+    if (state == CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN
+        || state == CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN) {
+      return Decision.SKIP_FOCUS;
+    }
+
+    lastSharpness = computeSharpness(frame);
+    final boolean blurred = averageSharpness > 0 && lastSharpness < averageSharpness * BLUR_RATIO;
+    averageSharpness =
+        averageSharpness < 0
+            ? lastSharpness
+            : averageSharpness + AVERAGE_WEIGHT * (lastSharpness - averageSharpness);
+    return blurred ? Decision.SKIP_BLUR : Decision.PASS;
+  }
+
+  /** Variance of the 4-neighbour Laplacian of the Y plane, sampled on a coarse grid. */
+  public static float computeSharpness(final YuvFrame frame) {
+    final byte[] y = frame.yData;
+    final int stride = frame.yRowStride;
+    final int step = Math.max(1, frame.width / SAMPLES_PER_ROW);
+    long sum = 0;
+    long sumSquares = 0;
+    int count = 0;
+    for (int j = 1; j < frame.height - 1; j += step) {
+      final int row = j * stride;
+      for (int i = 1; i < frame.width - 1; i += step) {
+        final int p = row + i;
+        final int laplacian =
+            4 * (y[p] & 0xff)
+                - (y[p - 1] & 0xff)
+                - (y[p + 1] & 0xff)
+                - (y[p - stride] & 0xff)
+                - (y[p + stride] & 0xff);
+        sum += laplacian;
+        sumSquares += laplacian * laplacian;
+        ++count;
+      }
+    }
+    if (count == 0) {
+      return 0;
+    }
+    final float mean = sum / (float) count;
+    return sumSquares / (float) count - mean * mean;
+  }
+
+  public synchronized long getFramesPassed() {
+    return framesPassed;
+  }
+
+  public synchronized long getFramesSkippedFocus() {
+    return framesSkippedFocus;
+  }
+
+  public synchronized long getFramesSkippedBlur() {
+    return framesSkippedBlur;
+  }
+
+  public synchronized float getLastSharpness() {
+    return lastSharpness;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "frames passed %d, skipped for focus %d, for blur %d, sharpness last %.1f avg %.1f",
+        framesPassed,
+        framesSkippedFocus,
+        framesSkippedBlur,
+        lastSharpness,
+        averageSharpness);
+  }
+}
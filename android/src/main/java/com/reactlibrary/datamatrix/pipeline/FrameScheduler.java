@@ -0,0 +1,130 @@
+package com.reactlibrary.datamatrix.pipeline;
+
+import android.os.Handler;
+
+import java.util.ArrayDeque;
+
+/**
+ * Hands camera frames to a slower consumer thread without letting a backlog build up. At most
+ * {@code maxPending} frames wait for the consumer; when a new frame arrives and the queue is full
+ * the oldest waiting frame is dropped, so the consumer always works on the freshest frames. Only
+ * one message is ever queued on the consumer's {@link Handler}, so other work posted there isn't
+ * stuck behind frames either.
+ */
+public class FrameScheduler {
+  /** Receives scheduled frames on the consumer thread. */
+  public interface FrameConsumer {
+    /** The frame is released after this returns, retain it to keep it longer. */
+    void onFrame(PooledFrame frame);
+  }
+
+  private final Handler handler;
+  private final FrameConsumer consumer;
+  private final int maxPending;
+  private final ArrayDeque<PooledFrame> pending;
+  private boolean drainPosted = false;
+  private boolean stopped = false;
+
+  private long framesReceived;
+  private long framesDropped;
+  private long framesProcessed;
+  private long totalQueueWaitNs;
+  private long maxQueueWaitNs;
+
+  private final Runnable drain =
+      new Runnable() {
+        @Override
+        public void run() {
+          final PooledFrame frame;
+          synchronized (FrameScheduler.this) {
+            frame = pending.poll();
+            if (frame == null) {
+              drainPosted = false;
+              return;
+            }
+            final long waitNs = System.nanoTime() - frame.getTimestamp();
+            totalQueueWaitNs += waitNs;
+            maxQueueWaitNs = Math.max(maxQueueWaitNs, waitNs);
+          }
+          try {
+            consumer.onFrame(frame);
+          } finally {
+            frame.release();
+            synchronized (FrameScheduler.this) {
+              ++framesProcessed;
+              // One frame per message, then yield to anything else posted to the handler.
+              drainPosted = !pending.isEmpty() && handler.post(this);
+            }
+          }
+        }
+      };
+
+  public FrameScheduler(final Handler handler, final int maxPending, final FrameConsumer consumer) {
+    this.handler = handler;
+    this.maxPending = maxPending;
+    this.consumer = consumer;
+    pending = new ArrayDeque<PooledFrame>(maxPending + 1);
+  }
+
+  /** Queues {@code frame} for the consumer. The scheduler takes its own reference. */
+  public synchronized void submit(final PooledFrame frame) {
+    ++framesReceived;
+    if (stopped) {
+      ++framesDropped;
+      return;
+    }
+    pending.add(frame.retain());
+    while (pending.size() > maxPending) {
+      pending.poll().release();
+      ++framesDropped;
+    }
+    if (!drainPosted) {
+      drainPosted = handler.post(drain);
+      if (!drainPosted) {
+        releasePending();
+      }
+    }
+  }
+
+  /** Drops all waiting frames and rejects new ones, e.g. before the consumer thread quits. */
+  public synchronized void stop() {
+    stopped = true;
+    releasePending();
+  }
+
+  private void releasePending() {
+    PooledFrame frame;
+    while ((frame = pending.poll()) != null) {
+      frame.release();
+      ++framesDropped;
+    }
+  }
+
+  public synchronized long getFramesReceived() {
+    return framesReceived;
+  }
+
+  public synchronized long getFramesDropped() {
+    return framesDropped;
+  }
+
+  public synchronized long getFramesProcessed() {
+    return framesProcessed;
+  }
+
+  /** Average time in milliseconds between a frame arriving and the consumer picking it up. */
+  public synchronized float getAverageQueueWaitMs() {
+    final long dequeued = framesReceived - framesDropped - pending.size();
+    return dequeued > 0 ? totalQueueWaitNs / 1e6f / dequeued : 0;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "frames received %d, dropped %d, processed %d, queue wait avg %.1fms max %.1fms",
+        framesReceived,
+        framesDropped,
+        framesProcessed,
+        getAverageQueueWaitMs(),
+        maxQueueWaitNs / 1e6f);
+  }
+}
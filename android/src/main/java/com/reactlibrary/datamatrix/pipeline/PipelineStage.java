@@ -0,0 +1,116 @@
+package com.reactlibrary.datamatrix.pipeline;
+
+import com.reactlibrary.datamatrix.env.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pipeline stage with its own worker threads, fed through a bounded queue. When the queue is
+ * full, the oldest waiting item is discarded for the new one, like {@link FrameScheduler} does for
+ * frames, so a slow stage never holds up the one feeding it and always works on recent items.
+ * Discarded items are handed to a {@link Discarder} to release what they hold.
+ */
+public class PipelineStage<T> {
+  private static final Logger LOGGER = new Logger();
+
+  /** Processes one item on a worker thread. */
+  public interface Worker<T> {
+    void process(T item);
+  }
+
+  /** Releases an item that won't be processed. */
+  public interface Discarder<T> {
+    void discard(T item);
+  }
+
+  private final String name;
+  private final BlockingQueue<T> queue;
+  private final Worker<T> worker;
+  private final Discarder<T> discarder;
+  private final Thread[] threads;
+  private final StageTimer timer;
+  private volatile boolean closed;
+
+  private long submitted;
+  private long discarded;
+
+  /**
+   * @param workers Threads processing items at once
+   * @param capacity Items waiting for a worker at most
+   */
+  public PipelineStage(
+      final String name,
+      final int workers,
+      final int capacity,
+      final Worker<T> worker,
+      final Discarder<T> discarder) {
+    this.name = name;
+    this.queue = new ArrayBlockingQueue<T>(capacity);
+    this.worker = worker;
+    this.discarder = discarder;
+    this.timer = new StageTimer(name, workers);
+    this.threads = new Thread[workers];
+    for (int i = 0; i < workers; ++i) {
+      threads[i] = new Thread(this::runWorker, name + "-" + i);
+      threads[i].start();
+    }
+  }
+
+  /** Queues {@code item}, discarding the oldest waiting one if the queue is full. */
+  public synchronized void submit(final T item) {
+    if (closed) {
+      ++discarded;
+      discarder.discard(item);
+      return;
+    }
+    ++submitted;
+    while (!queue.offer(item)) {
+      final T oldest = queue.poll();
+      if (oldest != null) {
+        ++discarded;
+        discarder.discard(oldest);
+      }
+    }
+  }
+
+  private void runWorker() {
+    while (!closed) {
+      final T item;
+      try {
+        item = queue.take();
+      } catch (final InterruptedException e) {
+        break;
+      }
+      final long start = System.nanoTime();
+      try {
+        worker.process(item);
+      } catch (final RuntimeException e) {
+        LOGGER.e(e, "Exception in the %s stage!", name);
+      } finally {
+        timer.add(System.nanoTime() - start);
+      }
+    }
+  }
+
+  /** Stops the workers once their current items are done and discards the waiting ones. */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      T item;
+      while ((item = queue.poll()) != null) {
+        ++discarded;
+        discarder.discard(item);
+      }
+    }
+    for (final Thread thread : threads) {
+      thread.interrupt();
+    }
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "%s, submitted %d, discarded %d, waiting %d",
+        timer.getStatString(), submitted, discarded, queue.size());
+  }
+}
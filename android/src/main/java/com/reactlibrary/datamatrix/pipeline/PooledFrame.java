@@ -0,0 +1,109 @@
+package com.reactlibrary.datamatrix.pipeline;
+
+import android.media.Image.Plane;
+
+import com.reactlibrary.datamatrix.env.YuvFrame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted camera frame owned by a {@link FramePool}. The plane arrays are allocated
+ * on first use and reused for every later frame, so the steady state doesn't allocate.
+ */
+public class PooledFrame {
+  private final FramePool pool;
+  private final AtomicInteger refCount = new AtomicInteger();
+  private final byte[][] planes = new byte[3][];
+  private YuvFrame yuvFrame;
+  private long timestamp;
+
+  PooledFrame(final FramePool pool) {
+    this.pool = pool;
+  }
+
+  void onAcquired() {
+    refCount.set(1);
+  }
+
+  /** Adds a reference. Every call must be balanced by a {@link #release()}. */
+  public PooledFrame retain() {
+    if (refCount.getAndIncrement() <= 0) {
+      throw new IllegalStateException("Frame retained after it was returned to the pool");
+    }
+    return this;
+  }
+
+  /** Drops a reference; the last one returns the frame to its pool. */
+  public void release() {
+    final int count = refCount.decrementAndGet();
+    if (count == 0) {
+      pool.recycle(this);
+    } else if (count < 0) {
+      throw new IllegalStateException("Frame released more often than retained");
+    }
+  }
+
+  /** Copies the planes of a Camera2 {@code YUV_420_888} image. */
+  public void fill(final Plane[] imagePlanes, final int width, final int height, final long timestamp) {
+    // Because of the variable row stride it's not possible to know in
+    // advance the actual necessary dimensions of the yuv planes.
+    for (int i = 0; i < imagePlanes.length; ++i) {
+      final ByteBuffer buffer = imagePlanes[i].getBuffer();
+      if (planes[i] == null || planes[i].length != buffer.capacity()) {
+        planes[i] = new byte[buffer.capacity()];
+      }
+      buffer.get(planes[i]);
+    }
+    final int yRowStride = imagePlanes[0].getRowStride();
+    final int uvRowStride = imagePlanes[1].getRowStride();
+    final int uvPixelStride = imagePlanes[1].getPixelStride();
+    if (yuvFrame == null
+        || yuvFrame.yData != planes[0]
+        || yuvFrame.uData != planes[1]
+        || yuvFrame.vData != planes[2]
+        || yuvFrame.width != width
+        || yuvFrame.height != height
+        || yuvFrame.yRowStride != yRowStride
+        || yuvFrame.uvRowStride != uvRowStride
+        || yuvFrame.uvPixelStride != uvPixelStride) {
+      yuvFrame =
+          new YuvFrame(
+              planes[0],
+              planes[1],
+              planes[2],
+              0,
+              0,
+              width,
+              height,
+              yRowStride,
+              uvRowStride,
+              uvPixelStride);
+    }
+    this.timestamp = timestamp;
+  }
+
+  /** Copies an NV21 buffer of the legacy camera API. */
+  public void fill(final byte[] nv21, final int width, final int height, final long timestamp) {
+    if (planes[0] == null || planes[0].length != nv21.length) {
+      planes[0] = new byte[nv21.length];
+    }
+    System.arraycopy(nv21, 0, planes[0], 0, nv21.length);
+    if (yuvFrame == null
+        || yuvFrame.yData != planes[0]
+        || yuvFrame.width != width
+        || yuvFrame.height != height) {
+      yuvFrame = YuvFrame.fromNv21(planes[0], width, height);
+    }
+    this.timestamp = timestamp;
+  }
+
+  public YuvFrame getYuvFrame() {
+    return yuvFrame;
+  }
+
+  /** Capture time in nanoseconds, see {@link System#nanoTime()}. */
+  public long getTimestamp() {
+    return timestamp;
+  }
+}
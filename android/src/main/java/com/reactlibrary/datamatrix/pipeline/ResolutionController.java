@@ -0,0 +1,111 @@
+package com.reactlibrary.datamatrix.pipeline;
+
+import android.util.Size;
+
+import com.reactlibrary.datamatrix.env.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the capture size from measured frame latency. Every {@link #WINDOW_FRAMES} frames the
+ * average latency is compared with the target: above it the next smaller size is chosen, and with
+ * plenty of headroom while detections fail to decode the next larger one, since small codes need
+ * more pixels. The window restarts after every change, so the new size is judged on its own frames.
+ */
+public class ResolutionController {
+  private static final Logger LOGGER = new Logger();
+
+  // Frames averaged before each decision.
+  private static final int WINDOW_FRAMES = 15;
+  // Steps up only if latency stays below this fraction of the target.
+  private static final float STEP_UP_HEADROOM = 0.6f;
+
+  private final List<Size> sizes;
+  private final float targetLatencyMs;
+  private int current;
+
+  private int frames;
+  private float totalLatencyMs;
+  private int detections;
+  private int decoded;
+
+  /**
+   * @param sizes Capture sizes to choose from, in any order
+   * @param initialSize The size the camera currently runs at, added to {@code sizes} if missing
+   * @param targetLatencyMs Latency from frame arrival to results that should not be exceeded
+   */
+  public ResolutionController(final Size[] sizes, final Size initialSize, final float targetLatencyMs) {
+    this.sizes = new ArrayList<Size>(Arrays.asList(sizes));
+    if (!this.sizes.contains(initialSize)) {
+      this.sizes.add(initialSize);
+    }
+    Collections.sort(
+        this.sizes,
+        new Comparator<Size>() {
+          @Override
+          public int compare(final Size lhs, final Size rhs) {
+            return Long.signum(
+                (long) lhs.getWidth() * lhs.getHeight() - (long) rhs.getWidth() * rhs.getHeight());
+          }
+        });
+    this.current = this.sizes.indexOf(initialSize);
+    this.targetLatencyMs = targetLatencyMs;
+    LOGGER.i("Adapting capture size within %s to %.0fms", this.sizes, targetLatencyMs);
+  }
+
+  /**
+   * Records one processed frame.
+   *
+   * @param latencyMs Time from the frame arriving to its results being ready
+   * @param frameDetections Number of detections in the frame
+   * @param frameDecoded Number of those that decoded
+   * @return The size to switch to, or null to keep the current one
+   */
+  public Size onFrameProcessed(final float latencyMs, final int frameDetections, final int frameDecoded) {
+    ++frames;
+    totalLatencyMs += latencyMs;
+    detections += frameDetections;
+    decoded += frameDecoded;
+    if (frames < WINDOW_FRAMES) {
+      return null;
+    }
+
+    final float averageLatencyMs = totalLatencyMs / frames;
+    final boolean decodeFailures = decoded < detections;
+    int next = current;
+    if (averageLatencyMs > targetLatencyMs && current > 0) {
+      next = current - 1;
+    } else if (averageLatencyMs < targetLatencyMs * STEP_UP_HEADROOM
+        && decodeFailures
+        && current < sizes.size() - 1) {
+      next = current + 1;
+    }
+    if (next != current) {
+      LOGGER.i(
+          "Average latency %.1fms, decoded %d of %d detections: capture size %s -> %s",
+          averageLatencyMs, decoded, detections, sizes.get(current), sizes.get(next));
+    }
+    resetWindow();
+    if (next == current) {
+      return null;
+    }
+    current = next;
+    return sizes.get(current);
+  }
+
+  /** Restarts averaging, e.g. after the capture size changed outside of this controller. */
+  public void resetWindow() {
+    frames = 0;
+    totalLatencyMs = 0;
+    detections = 0;
+    decoded = 0;
+  }
+
+  public Size getCurrentSize() {
+    return sizes.get(current);
+  }
+}
@@ -0,0 +1,110 @@
+package com.reactlibrary.datamatrix.pipeline;
+
+import com.reactlibrary.datamatrix.env.YuvFrame;
+
+/**
+ * Tells whether a frame shows anything new since the last full detection pass. Frames are reduced
+ * to a small luminance thumbnail of block averages and compared with the thumbnail of the last
+ * frame that was fully processed; a mean absolute difference below the threshold means the scene
+ * is static and the previous results still hold. A full pass is forced at least every {@code
+ * refreshIntervalMs} regardless, so slow drift and missed codes are caught eventually.
+ */
+public class SceneChangeDetector {
+  // Width of the thumbnail, its height follows the frame's aspect ratio.
+  private static final int THUMBNAIL_WIDTH = 64;
+  // Luminance samples averaged per thumbnail pixel along each axis.
+  private static final int SAMPLES_PER_CELL = 4;
+
+  private final float threshold;
+  private final long refreshIntervalMs;
+
+  private int[] reference;
+  private int[] thumbnail;
+  private long lastFullPassMs;
+  private float lastDifference;
+
+  private long fullPasses;
+  private long skippedPasses;
+
+  /**
+   * @param threshold Mean absolute thumbnail difference, in 8-bit levels, that counts as a change
+   * @param refreshIntervalMs Longest time between two full passes
+   */
+  public SceneChangeDetector(final float threshold, final long refreshIntervalMs) {
+    this.threshold = threshold;
+    this.refreshIntervalMs = refreshIntervalMs;
+  }
+
+  /**
+   * Returns whether {@code frame} needs a full pass. If so, it becomes the reference that later
+   * frames are compared with.
+   */
+  public synchronized boolean needsFullPass(final YuvFrame frame, final long nowMs) {
+    computeThumbnail(frame);
+    boolean changed = reference == null || reference.length != thumbnail.length;
+    if (!changed) {
+      lastDifference = difference(reference, thumbnail);
+      changed = lastDifference > threshold || nowMs - lastFullPassMs >= refreshIntervalMs;
+    }
+    if (!changed) {
+      ++skippedPasses;
+      return false;
+    }
+    final int[] swap = reference;
+    reference = thumbnail;
+    thumbnail = swap;
+    lastFullPassMs = nowMs;
+    ++fullPasses;
+    return true;
+  }
+
+  /** Forgets the reference, so the next frame gets a full pass, e.g. after the frame size changed. */
+  public synchronized void reset() {
+    reference = null;
+  }
+
+  private void computeThumbnail(final YuvFrame frame) {
+    final int thumbnailHeight = Math.max(1, THUMBNAIL_WIDTH * frame.height / frame.width);
+    final int size = THUMBNAIL_WIDTH * thumbnailHeight;
+    if (thumbnail == null || thumbnail.length != size) {
+      thumbnail = new int[size];
+    }
+    final float cellWidth = frame.width / (float) THUMBNAIL_WIDTH;
+    final float cellHeight = frame.height / (float) thumbnailHeight;
+    for (int ty = 0; ty < thumbnailHeight; ++ty) {
+      for (int tx = 0; tx < THUMBNAIL_WIDTH; ++tx) {
+        int sum = 0;
+        for (int sy = 0; sy < SAMPLES_PER_CELL; ++sy) {
+          final int row = (int) ((ty + (sy + 0.5f) / SAMPLES_PER_CELL) * cellHeight) * frame.yRowStride;
+          for (int sx = 0; sx < SAMPLES_PER_CELL; ++sx) {
+            final int x = (int) ((tx + (sx + 0.5f) / SAMPLES_PER_CELL) * cellWidth);
+            sum += frame.yData[row + x] & 0xff;
+          }
+        }
+        thumbnail[ty * THUMBNAIL_WIDTH + tx] = sum / (SAMPLES_PER_CELL * SAMPLES_PER_CELL);
+      }
+    }
+  }
+
+  private static float difference(final int[] a, final int[] b) {
+    long sum = 0;
+    for (int i = 0; i < a.length; ++i) {
+      sum += Math.abs(a[i] - b[i]);
+    }
+    return sum / (float) a.length;
+  }
+
+  public synchronized long getFullPasses() {
+    return fullPasses;
+  }
+
+  public synchronized long getSkippedPasses() {
+    return skippedPasses;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "full passes %d, reused %d, last difference %.2f",
+        fullPasses, skippedPasses, lastDifference);
+  }
+}
@@ -0,0 +1,41 @@
+package com.reactlibrary.datamatrix.pipeline;
+
+/**
+ * Busy time of one pipeline stage. Utilisation is the busy time of its threads over the wall time
+ * they had, measured since the last {@link #getStatString()}, so a stage near 100% is the one
+ * holding the pipeline back.
+ */
+public class StageTimer {
+  private final String name;
+  private final int threads;
+
+  private long items;
+  private long busyNs;
+  private long windowBusyNs;
+  private long windowStartNs = System.nanoTime();
+
+  /** @param threads Threads the stage runs on */
+  public StageTimer(final String name, final int threads) {
+    this.name = name;
+    this.threads = threads;
+  }
+
+  /** Adds one item that kept a thread of the stage busy for {@code itemBusyNs}. */
+  public synchronized void add(final long itemBusyNs) {
+    ++items;
+    busyNs += itemBusyNs;
+    windowBusyNs += itemBusyNs;
+  }
+
+  /** Returns the counters and utilisation since the last call, and starts a new window. */
+  public synchronized String getStatString() {
+    final long now = System.nanoTime();
+    final long wallNs = (now - windowStartNs) * threads;
+    final float utilisation = wallNs > 0 ? 100f * windowBusyNs / wallNs : 0;
+    windowBusyNs = 0;
+    windowStartNs = now;
+    return String.format(
+        "%s %d items, avg %.1fms, utilisation %.0f%%",
+        name, items, items > 0 ? busyNs / 1e6f / items : 0, utilisation);
+  }
+}
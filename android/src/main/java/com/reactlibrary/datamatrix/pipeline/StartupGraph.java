@@ -0,0 +1,208 @@
+package com.reactlibrary.datamatrix.pipeline;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the phases of scanner startup as a small dependency graph, so independent ones such as
+ * opening the camera and loading the detector overlap instead of running one after another. A
+ * phase is either a task run on a background thread once its dependencies have completed, or
+ * driven from outside with {@link #begin} and {@link #complete}, like the camera. The graph is
+ * ready once every phase has completed; frames arriving before then are dropped and counted. The
+ * start and end of every phase are recorded relative to the creation of the graph.
+ */
+public class StartupGraph {
+  /** Work of one phase. */
+  public interface Task {
+    void run() throws Exception;
+  }
+
+  /** Told once every phase has completed, or the first one failed. Called on any thread. */
+  public interface Listener {
+    void onReady(StartupGraph graph);
+
+    void onFailed(String phase, Exception e);
+  }
+
+  private static class Phase {
+    final Task task;
+    final List<String> dependencies;
+    long beginMs = -1;
+    long endMs = -1;
+
+    Phase(final Task task, final List<String> dependencies) {
+      this.task = task;
+      this.dependencies = dependencies;
+    }
+  }
+
+  private final Listener listener;
+  private final long createdMs = SystemClock.uptimeMillis();
+  // In the order phases were added, which is also the order they're reported in.
+  private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Map<String, Long> events = new LinkedHashMap<String, Long>();
+
+  private boolean started;
+  private boolean failed;
+  private volatile boolean ready;
+  private long readyMs = -1;
+  private long framesDropped;
+
+  public StartupGraph(final Listener listener) {
+    this.listener = listener;
+  }
+
+  /** Adds a phase run in the background once all {@code dependencies} have completed. */
+  public synchronized void addTask(final String name, final Task task, final String... dependencies) {
+    phases.put(name, new Phase(task, Arrays.asList(dependencies)));
+  }
+
+  /** Adds a phase that is driven from outside with {@link #begin} and {@link #complete}. */
+  public synchronized void expect(final String name) {
+    phases.put(name, new Phase(null, new ArrayList<String>()));
+  }
+
+  /** Starts every task whose dependencies are met, no phases may be added afterwards. */
+  public void start() {
+    synchronized (this) {
+      started = true;
+    }
+    schedule();
+  }
+
+  public synchronized void begin(final String name) {
+    final Phase phase = phases.get(name);
+    if (phase != null && phase.beginMs < 0) {
+      phase.beginMs = elapsedMs();
+    }
+  }
+
+  public void complete(final String name) {
+    synchronized (this) {
+      final Phase phase = phases.get(name);
+      if (phase == null || phase.endMs >= 0) {
+        return;
+      }
+      if (phase.beginMs < 0) {
+        phase.beginMs = elapsedMs();
+      }
+      phase.endMs = elapsedMs();
+    }
+    schedule();
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+  /** Counts a frame that arrived before the graph was ready. */
+  public synchronized void onFrameDropped() {
+    ++framesDropped;
+  }
+
+  /**
+   * Records the time of a one-off event, e.g. the first frame processed. Returns false and ignores
+   * it if it was already recorded.
+   */
+  public synchronized boolean recordEvent(final String name) {
+    if (events.containsKey(name)) {
+      return false;
+    }
+    events.put(name, elapsedMs());
+    return true;
+  }
+
+  private long elapsedMs() {
+    return SystemClock.uptimeMillis() - createdMs;
+  }
+
+  // Starts the tasks that became runnable and tells the listener once everything has completed.
+  private void schedule() {
+    final List<String> runnable = new ArrayList<String>();
+    boolean nowReady = true;
+    synchronized (this) {
+      if (!started || failed || ready) {
+        return;
+      }
+      for (final Map.Entry<String, Phase> entry : phases.entrySet()) {
+        final Phase phase = entry.getValue();
+        nowReady &= phase.endMs >= 0;
+        if (phase.task != null && phase.beginMs < 0 && dependenciesMet(phase)) {
+          phase.beginMs = elapsedMs();
+          runnable.add(entry.getKey());
+        }
+      }
+      if (nowReady) {
+        ready = true;
+        readyMs = elapsedMs();
+        executor.shutdown();
+      }
+    }
+    if (nowReady) {
+      listener.onReady(this);
+      return;
+    }
+    for (final String name : runnable) {
+      executor.execute(() -> run(name));
+    }
+  }
+
+  private boolean dependenciesMet(final Phase phase) {
+    for (final String dependency : phase.dependencies) {
+      final Phase other = phases.get(dependency);
+      if (other == null || other.endMs < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void run(final String name) {
+    final Task task;
+    synchronized (this) {
+      task = phases.get(name).task;
+    }
+    try {
+      task.run();
+    } catch (final Exception e) {
+      synchronized (this) {
+        if (failed) {
+          return;
+        }
+        failed = true;
+        executor.shutdown();
+      }
+      listener.onFailed(name, e);
+      return;
+    }
+    complete(name);
+  }
+
+  public synchronized String getStatString() {
+    final StringBuilder builder = new StringBuilder();
+    for (final Map.Entry<String, Phase> entry : phases.entrySet()) {
+      final Phase phase = entry.getValue();
+      builder.append(entry.getKey()).append(' ');
+      if (phase.endMs >= 0) {
+        builder.append(String.format("%d-%dms", phase.beginMs, phase.endMs));
+      } else {
+        builder.append(phase.beginMs >= 0 ? "running" : "waiting");
+      }
+      builder.append(", ");
+    }
+    builder.append(readyMs >= 0 ? String.format("ready at %dms", readyMs) : "not ready");
+    for (final Map.Entry<String, Long> event : events.entrySet()) {
+      builder.append(String.format(", %s at %dms", event.getKey(), event.getValue()));
+    }
+    builder.append(String.format(", %d frames dropped", framesDropped));
+    return builder.toString();
+  }
+}
@@ -0,0 +1,132 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import android.content.Context;
+
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+import com.reactlibrary.datamatrix.env.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes several crops at once, each worker with a {@link BarcodeDetector} of its own, as one
+ * detector can't be used by several threads at a time. The calling thread works along with up to
+ * {@code size - 1} pool threads, and results are returned in the order of the tasks whichever
+ * worker finished first.
+ */
+public class BarcodeDecoderPool {
+  private static final Logger LOGGER = new Logger();
+
+  /** Work done with one detector, e.g. cropping and decoding one detection. */
+  public interface Task<T> {
+    T run(BarcodeDetector detector);
+  }
+
+  private final int size;
+  private final BlockingQueue<BarcodeDetector> idle;
+  private final ExecutorService executor;
+
+  private long tasks;
+  private long batches;
+
+  public BarcodeDecoderPool(final Context context, final int size) {
+    this.size = Math.max(1, size);
+    this.idle = new ArrayBlockingQueue<BarcodeDetector>(this.size);
+    for (int i = 0; i < this.size; ++i) {
+      idle.add(
+          new BarcodeDetector.Builder(context.getApplicationContext())
+              .setBarcodeFormats(Barcode.DATA_MATRIX)
+              .build());
+    }
+    this.executor = this.size > 1 ? Executors.newFixedThreadPool(this.size - 1) : null;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /** Runs {@code tasks} on all workers, see {@link #runAll(List, int)}. */
+  public <T> List<T> runAll(final List<Task<T>> tasks) {
+    return runAll(tasks, size);
+  }
+
+  /**
+   * Runs {@code tasks} on up to {@code parallelism} workers and returns their results in the order
+   * of {@code tasks}. A task that throws has a null result.
+   */
+  public <T> List<T> runAll(final List<Task<T>> tasks, final int parallelism) {
+    synchronized (this) {
+      this.tasks += tasks.size();
+      ++batches;
+    }
+    final Object[] results = new Object[tasks.size()];
+    final AtomicInteger next = new AtomicInteger();
+    final Runnable worker = () -> work(tasks, results, next);
+
+    final int helpers = executor != null ? Math.min(Math.min(parallelism, size), tasks.size()) - 1 : 0;
+    final List<Future<?>> futures = new ArrayList<Future<?>>(Math.max(0, helpers));
+    for (int i = 0; i < helpers; ++i) {
+      futures.add(executor.submit(worker));
+    }
+    worker.run();
+    for (final Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (final InterruptedException | ExecutionException e) {
+        LOGGER.e(e, "Decoding worker failed");
+      }
+    }
+    @SuppressWarnings("unchecked")
+    final List<T> ordered = (List<T>) Arrays.asList(results);
+    return ordered;
+  }
+
+  // Takes tasks until none are left, all with one detector.
+  private <T> void work(final List<Task<T>> tasks, final Object[] results, final AtomicInteger next) {
+    final BarcodeDetector detector = acquire();
+    try {
+      int i;
+      while ((i = next.getAndIncrement()) < tasks.size()) {
+        try {
+          results[i] = tasks.get(i).run(detector);
+        } catch (final RuntimeException e) {
+          LOGGER.e(e, "Decoding failed");
+        }
+      }
+    } finally {
+      idle.add(detector);
+    }
+  }
+
+  private BarcodeDetector acquire() {
+    BarcodeDetector detector = null;
+    boolean interrupted = false;
+    while (detector == null) {
+      try {
+        detector = idle.take();
+      } catch (final InterruptedException e) {
+        // Callers expect results, keep waiting and restore the flag afterwards.
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return detector;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "%d workers, %d crops in %d batches, %.1f per batch",
+        size, tasks, batches, batches > 0 ? tasks / (float) batches : 0);
+  }
+}
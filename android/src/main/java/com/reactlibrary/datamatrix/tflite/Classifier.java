@@ -16,14 +16,55 @@ limitations under the License.
 package com.reactlibrary.datamatrix.tflite;
 
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.RectF;
 
+import com.reactlibrary.datamatrix.env.LuminanceFrame;
+import com.reactlibrary.datamatrix.env.YuvFrame;
+
 import java.util.List;
 
 /** Generic interface for interacting with different recognition engines. */
 public interface Classifier {
   List<Recognition> recognizeImage(Bitmap bitmap, Bitmap originalBitmap);
 
+  /** Same as {@link #recognizeImage(Bitmap, Bitmap)}, but decodes crops of the frame's Y plane. */
+  List<Recognition> recognizeImage(Bitmap bitmap, LuminanceFrame luminance);
+
+  /**
+   * Samples the model input straight out of a camera frame and decodes crops of its Y plane.
+   *
+   * @param inputToFrame Maps model input pixel coordinates into frame coordinates.
+   */
+  List<Recognition> recognizeImage(YuvFrame frame, Matrix inputToFrame);
+
+  /**
+   * Runs only the detector on a camera frame. The results carry the detection score as confidence
+   * and their locations in frame coordinates, nothing is decoded yet. The list and its
+   * recognitions are reused by the next call, copy them to keep them longer.
+   */
+  List<Recognition> detectImage(YuvFrame frame, Matrix inputToFrame);
+
+  /**
+   * Runs the detector on several images in one interpreter call where the model allows it, e.g.
+   * the tiles of a frame or crops around tracked codes. Image {@code i} is sampled from {@code
+   * frames.get(i)} through {@code inputToFrames.get(i)}. Returns one list per image; unlike {@link
+   * #detectImage}, the recognitions are new and may be kept.
+   */
+  List<List<Recognition>> detectImages(List<YuvFrame> frames, List<Matrix> inputToFrames);
+
+  /**
+   * Decodes crops of {@code luminance} around {@code detections}, whose locations must be given in
+   * its coordinates. Returns one recognition per decoded code, with the code as id.
+   */
+  List<Recognition> decodeDetections(List<Recognition> detections, LuminanceFrame luminance);
+
+  /**
+   * Same as {@link #decodeDetections(List, LuminanceFrame)}, but only decodes as many detections
+   * as fit the scheduler's budget, best first, and leaves the rest to later frames.
+   */
+  List<Recognition> decodeDetections(List<Recognition> detections, LuminanceFrame luminance, DecodeScheduler scheduler);
+
   void enableStatLogging(final boolean debug);
 
   String getStatString();
@@ -34,21 +75,37 @@ public interface Classifier {
 
   void setUseNNAPI(boolean isChecked);
 
-  /** An immutable result returned by a Classifier describing what was recognized. */
+  /**
+   * Caps the detections returned per image, up to what the model outputs, or 0 to return all of
+   * them. Shared detectors keep the cap until it is set again, see {@code
+   * ScannerResources#acquireDetector}.
+   */
+  void setMaxDetections(int maxDetections);
+
+  /** Sets the preprocessing stages crops are decoded with, or null for plain then thresholded. */
+  void setDecodeLadder(DecodeLadder decodeLadder);
+
+  DecodeLadder getDecodeLadder();
+
+  /**
+   * A result returned by a Classifier describing what was recognized. Classifiers may recycle the
+   * instances they return, see {@link #detectImage(YuvFrame, Matrix)}.
+   */
   public class Recognition {
     /**
      * A unique identifier for what has been recognized. Specific to the class, not the instance of
      * the object.
      */
-    private final String id;
+    private String id;
 
     /** Display name for the recognition. */
-    private final String title;
+    private String title;
 
     /**
      * A sortable score for how good the recognition is relative to others. Higher should be better.
+     * NaN if there is none; kept unboxed so recycled instances don't allocate.
      */
-    private final Float confidence;
+    private float confidence;
 
     /** Optional location within the source image for the location of the recognized object. */
     private RectF location;
@@ -57,10 +114,27 @@ public interface Classifier {
         final String id, final String title, final Float confidence, final RectF location) {
       this.id = id;
       this.title = title;
-      this.confidence = confidence;
+      this.confidence = confidence != null ? confidence : Float.NaN;
       this.location = location;
     }
 
+    /** Overwrites a recycled instance, copying {@code location} into its own rect. */
+    void set(final String id, final String title, final float confidence, final RectF location) {
+      this.id = id;
+      this.title = title;
+      this.confidence = confidence;
+      if (this.location == null) {
+        this.location = new RectF(location);
+      } else {
+        this.location.set(location);
+      }
+    }
+
+    /** Overwrites a recycled instance with a copy of {@code other}. */
+    void set(final Recognition other) {
+      set(other.id, other.title, other.confidence, other.location);
+    }
+
     public String getId() {
       return id;
     }
@@ -70,7 +144,7 @@ public interface Classifier {
     }
 
     public Float getConfidence() {
-      return confidence;
+      return Float.isNaN(confidence) ? null : confidence;
     }
 
     public RectF getLocation() {
@@ -92,7 +166,7 @@ public interface Classifier {
         resultString += title + " ";
       }
 
-      if (confidence != null) {
+      if (!Float.isNaN(confidence)) {
         resultString += String.format("(%.1f%%) ", confidence * 100.0f);
       }
 
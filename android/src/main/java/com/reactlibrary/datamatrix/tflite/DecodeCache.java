@@ -0,0 +1,223 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import android.graphics.RectF;
+import android.os.SystemClock;
+
+import com.reactlibrary.datamatrix.tflite.Classifier.Recognition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Remembers the codes decoded on earlier frames by the track of their box, so a box over a known
+ * code gets its code back without cropping and decoding it again. Boxes are matched to entries by
+ * their track id, so codes next to each other or passing each other keep their own. A box without
+ * a track yet takes the code of an entry it overlaps by more than {@code iouThreshold}, which then
+ * belongs to the track the box starts. An entry is forgotten once no box covered it for {@code
+ * ttlMs}. Every {@code reverifyMs} one of its boxes is decoded again, so a
+ * different code moving into its place is noticed.
+ */
+public class DecodeCache {
+  /** Track id of a box that no track covers. */
+  public static final int NO_TRACK = -1;
+
+  private static class Entry {
+    String code;
+    int trackId;
+    final RectF location;
+    long lastSeenMs;
+    long lastVerifiedMs;
+
+    Entry(final String code, final int trackId, final RectF location, final long nowMs) {
+      this.code = code;
+      this.trackId = trackId;
+      this.location = new RectF(location);
+      this.lastSeenMs = nowMs;
+      this.lastVerifiedMs = nowMs;
+    }
+  }
+
+  private final float iouThreshold;
+  private final long ttlMs;
+  private final long reverifyMs;
+  private final List<Entry> entries = new ArrayList<Entry>();
+
+  private long hits;
+  private long misses;
+  private long reverified;
+  private long changed;
+
+  /**
+   * @param iouThreshold Overlap a box needs with an entry to take its code
+   * @param ttlMs Time an entry is kept without any box covering it
+   * @param reverifyMs Time after which an entry's code is decoded again
+   */
+  public DecodeCache(final float iouThreshold, final long ttlMs, final long reverifyMs) {
+    this.iouThreshold = iouThreshold;
+    this.ttlMs = ttlMs;
+    this.reverifyMs = reverifyMs;
+  }
+
+  /**
+   * Returns one new recognition, with the code as id, for every detection over a known code, and
+   * adds the others to {@code uncached}, which need decoding. Detections over a code due for
+   * verification are in both, callers prefer the decoded code where the decode succeeds, see
+   * {@link #merge}.
+   *
+   * @param trackIds Track id of each detection, or {@link #NO_TRACK}
+   */
+  public synchronized List<Recognition> lookup(final List<Recognition> detections, final int[] trackIds, final List<Recognition> uncached) {
+    final long nowMs = SystemClock.uptimeMillis();
+    expire(nowMs);
+    List<Recognition> cached = Collections.emptyList();
+    for (int i = 0; i < detections.size(); ++i) {
+      final Recognition detection = detections.get(i);
+      final RectF location = detection.getLocation();
+      final Entry entry = find(location, trackIds[i]);
+      if (entry == null) {
+        ++misses;
+        uncached.add(detection);
+        continue;
+      }
+      entry.location.set(location);
+      entry.lastSeenMs = nowMs;
+      if (nowMs - entry.lastVerifiedMs >= reverifyMs) {
+        // Decoded again, but the old code is served as well until a new decode succeeds, so a
+        // failed one doesn't drop the code from the frame.
+        entry.lastVerifiedMs = nowMs;
+        ++reverified;
+        uncached.add(detection);
+      } else {
+        ++hits;
+      }
+      if (cached.isEmpty()) {
+        cached = new ArrayList<Recognition>(detections.size());
+      }
+      cached.add(new Recognition(entry.code, detection.getTitle(), 1f, location));
+    }
+    return cached;
+  }
+
+  /**
+   * Returns {@code cached} and {@code decoded} together, leaving out the cached codes of
+   * detections that were decoded again, which {@code decoded} holds the fresh code of.
+   */
+  public static List<Recognition> merge(final List<Recognition> cached, final List<Recognition> decoded) {
+    if (decoded.isEmpty()) {
+      return cached;
+    }
+    if (cached.isEmpty()) {
+      return decoded;
+    }
+    final List<Recognition> results = new ArrayList<Recognition>(cached.size() + decoded.size());
+    for (int i = 0; i < cached.size(); ++i) {
+      if (!containsLocation(decoded, cached.get(i).getLocation())) {
+        results.add(cached.get(i));
+      }
+    }
+    results.addAll(decoded);
+    return results;
+  }
+
+  private static boolean containsLocation(final List<Recognition> recognitions, final RectF location) {
+    for (int i = 0; i < recognitions.size(); ++i) {
+      if (recognitions.get(i).getLocation().equals(location)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Remembers successfully decoded {@code results}, replacing the entries of their tracks. A result
+   * takes the track id of the detection at its location among {@code detections}.
+   */
+  public synchronized void put(final List<Recognition> results, final List<Recognition> detections, final int[] trackIds) {
+    final long nowMs = SystemClock.uptimeMillis();
+    for (int i = 0; i < results.size(); ++i) {
+      final Recognition result = results.get(i);
+      final RectF location = result.getLocation();
+      final int trackId = getTrackId(location, detections, trackIds);
+      final Entry entry = find(location, trackId);
+      if (entry == null) {
+        entries.add(new Entry(result.getId(), trackId, location, nowMs));
+        continue;
+      }
+      if (!entry.code.equals(result.getId())) {
+        ++changed;
+        entry.code = result.getId();
+      }
+      entry.location.set(location);
+      entry.lastSeenMs = nowMs;
+      entry.lastVerifiedMs = nowMs;
+    }
+  }
+
+  private static int getTrackId(final RectF location, final List<Recognition> detections, final int[] trackIds) {
+    for (int i = 0; i < detections.size(); ++i) {
+      if (detections.get(i).getLocation().equals(location)) {
+        return trackIds[i];
+      }
+    }
+    return NO_TRACK;
+  }
+
+  /**
+   * The entry of track {@code trackId}. Failing that, the entry overlapping location the most, if
+   * above the threshold, among those without a track, or among all of them for a box without one.
+   * An entry found by overlap for a tracked box is given its track.
+   */
+  private Entry find(final RectF location, final int trackId) {
+    if (trackId != NO_TRACK) {
+      for (int i = 0; i < entries.size(); ++i) {
+        if (entries.get(i).trackId == trackId) {
+          return entries.get(i);
+        }
+      }
+    }
+    Entry best = null;
+    float bestIou = iouThreshold;
+    for (int i = 0; i < entries.size(); ++i) {
+      final Entry entry = entries.get(i);
+      if (trackId != NO_TRACK && entry.trackId != NO_TRACK) {
+        continue;
+      }
+      final float iou = NonMaxSuppression.intersectionOverUnion(location, entry.location);
+      if (iou > bestIou) {
+        best = entry;
+        bestIou = iou;
+      }
+    }
+    if (best != null && trackId != NO_TRACK) {
+      best.trackId = trackId;
+    }
+    return best;
+  }
+
+  private void expire(final long nowMs) {
+    for (final Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+      if (nowMs - it.next().lastSeenMs > ttlMs) {
+        it.remove();
+      }
+    }
+  }
+
+  /** Forgets every code, e.g. when the frame size changed and their locations with it. */
+  public synchronized void reset() {
+    entries.clear();
+  }
+
+  public synchronized String getStatString() {
+    final long lookups = hits + misses + reverified;
+    return String.format(
+        "%d codes, %d hits, %d misses, %d reverified, %d changed, %.0f%% of decodes skipped",
+        entries.size(),
+        hits,
+        misses,
+        reverified,
+        changed,
+        lookups > 0 ? 100f * hits / lookups : 0);
+  }
+}
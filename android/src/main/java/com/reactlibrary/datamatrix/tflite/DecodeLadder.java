@@ -0,0 +1,135 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import com.reactlibrary.datamatrix.env.LuminanceFrame;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.CLAHE;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Preprocessing stages tried one after another on the crop of a detection until one decodes. Each
+ * stage starts from the plain crop. Per stage, attempts, wins and time spent are recorded, so
+ * stages that never pay off can be dropped and the rest ordered by wins per millisecond.
+ */
+public class DecodeLadder {
+  /** One way of preparing a crop for the decoder. */
+  public enum Stage {
+    PLAIN,
+    CONTRAST_STRETCH,
+    CLAHE,
+    OTSU,
+    ADAPTIVE,
+    INVERTED,
+    ROTATED_90
+  }
+
+  /** Decodes one prepared crop, returns null if there's no code. */
+  public interface Decoder {
+    String decode(LuminanceFrame crop);
+  }
+
+  private static final double CLAHE_CLIP_LIMIT = 2.0;
+  private static final Size CLAHE_TILES = new Size(8, 8);
+  private static final int ADAPTIVE_BLOCK_SIZE = 41;
+  private static final double ADAPTIVE_OFFSET = 20;
+
+  private final Stage[] stages;
+  private final long[] attempts;
+  private final long[] wins;
+  private final long[] totalNs;
+
+  public DecodeLadder(final Stage... stages) {
+    this.stages = stages;
+    this.attempts = new long[stages.length];
+    this.wins = new long[stages.length];
+    this.totalNs = new long[stages.length];
+  }
+
+  public int getStageCount() {
+    return stages.length;
+  }
+
+  /**
+   * Tries the stages from {@code first} up to, not including, {@code end} on {@code crop}, and
+   * returns the code of the first one that decodes.
+   */
+  public String decode(final LuminanceFrame crop, final int first, final int end, final Decoder decoder) {
+    for (int i = first; i < Math.min(end, stages.length); ++i) {
+      final long start = System.nanoTime();
+      final String code = decoder.decode(stages[i] == Stage.PLAIN ? crop : prepare(stages[i], crop));
+      synchronized (this) {
+        ++attempts[i];
+        totalNs[i] += System.nanoTime() - start;
+        if (code != null) {
+          ++wins[i];
+        }
+      }
+      if (code != null) {
+        return code;
+      }
+    }
+    return null;
+  }
+
+  private static LuminanceFrame prepare(final Stage stage, final LuminanceFrame crop) {
+    final Mat image = new Mat(crop.height, crop.width, CvType.CV_8UC1);
+    image.put(0, 0, crop.data);
+    switch (stage) {
+      case CONTRAST_STRETCH:
+        Core.normalize(image, image, 0, 255, Core.NORM_MINMAX);
+        break;
+      case CLAHE:
+        final CLAHE clahe = Imgproc.createCLAHE(CLAHE_CLIP_LIMIT, CLAHE_TILES);
+        clahe.apply(image, image);
+        break;
+      case OTSU:
+        Core.normalize(image, image, 0, 255, Core.NORM_MINMAX);
+        Imgproc.threshold(image, image, 0, 255, Imgproc.THRESH_BINARY | Imgproc.THRESH_OTSU);
+        break;
+      case ADAPTIVE:
+        // The thresholding decode used before the ladder.
+        final Mat kernel = new Mat(new Size(1, 1), CvType.CV_8U, new Scalar(255));
+        Core.normalize(image, image, 0, 255, Core.NORM_MINMAX);
+        Imgproc.morphologyEx(image, image, Imgproc.MORPH_OPEN, kernel);
+        Imgproc.morphologyEx(image, image, Imgproc.MORPH_CLOSE, kernel);
+        Imgproc.adaptiveThreshold(image, image, 255, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY, ADAPTIVE_BLOCK_SIZE, ADAPTIVE_OFFSET);
+        kernel.release();
+        break;
+      case INVERTED:
+        // Light codes on dark parts, e.g. laser etched ones.
+        Core.bitwise_not(image, image);
+        break;
+      case ROTATED_90:
+        Core.rotate(image, image, Core.ROTATE_90_CLOCKWISE);
+        break;
+      default:
+        break;
+    }
+    final LuminanceFrame prepared =
+        new LuminanceFrame(new byte[image.cols() * image.rows()], image.cols(), image.rows(), image.cols());
+    image.get(0, 0, prepared.data);
+    image.release();
+    return prepared;
+  }
+
+  public synchronized String getStatString() {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < stages.length; ++i) {
+      final float ms = totalNs[i] / 1e6f;
+      builder.append(
+          String.format(
+              "%s%s %d/%d avg %.1fms %.3f wins/ms",
+              i > 0 ? ", " : "",
+              stages[i].name().toLowerCase(),
+              wins[i],
+              attempts[i],
+              attempts[i] > 0 ? ms / attempts[i] : 0,
+              ms > 0 ? wins[i] / ms : 0));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,191 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import android.graphics.RectF;
+
+import com.reactlibrary.datamatrix.tflite.Classifier.Recognition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Spends a fixed time per frame on decoding instead of trying every detection. Candidates are
+ * decoded best score first while the budget lasts, and those that don't fit roll over to the next
+ * frame, unless a new detection there covers them or they waited {@code maxRolloverFrames} already.
+ * Budget left after a first attempt per candidate goes to a retry, e.g. the rest of the {@link
+ * DecodeLadder}, on the best scoring ones that failed. Candidates are handed to the decoder in waves of {@code
+ * parallelism}, which it may decode at once, and the budget is checked between waves. The first
+ * wave of a frame is always tried, so a tight budget can't starve decoding altogether.
+ */
+public class DecodeScheduler {
+  /**
+   * Decodes the crops around {@code locations}, the cheap way first or, when {@code retry}, the
+   * more expensive ways. Returns their codes in order, null for none.
+   */
+  public interface Decoder {
+    List<String> decode(List<RectF> locations, boolean retry);
+  }
+
+  // New detections overlapping a rolled over one by more than this replace it.
+  private static final float ROLLOVER_IOU_THRESHOLD = 0.5f;
+
+  private static final Comparator<Candidate> BY_SCORE =
+      new Comparator<Candidate>() {
+        @Override
+        public int compare(final Candidate lhs, final Candidate rhs) {
+          return Float.compare(rhs.score, lhs.score);
+        }
+      };
+
+  private static class Candidate {
+    final Recognition detection;
+    final float score;
+    final int age;
+
+    Candidate(final Recognition detection, final int age) {
+      this.detection = detection;
+      final Float confidence = detection.getConfidence();
+      this.score = confidence != null ? confidence : 0;
+      this.age = age;
+    }
+  }
+
+  private final float budgetMs;
+  private final int maxRolloverFrames;
+  private final int parallelism;
+  private List<Candidate> rollover = new ArrayList<Candidate>();
+
+  private long frames;
+  private float totalMs;
+  private long firstAttempts;
+  private long retryAttempts;
+  private long decoded;
+  private long rolledOver;
+  private long expired;
+
+  /**
+   * @param budgetMs Decoding time per frame
+   * @param maxRolloverFrames Frames a candidate may wait for its turn before it is dropped
+   * @param parallelism Candidates the decoder is given at once
+   */
+  public DecodeScheduler(final float budgetMs, final int maxRolloverFrames, final int parallelism) {
+    this.budgetMs = budgetMs;
+    this.maxRolloverFrames = maxRolloverFrames;
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Decodes {@code detections} and the candidates rolled over from earlier frames within the
+   * budget. Returns one new recognition per decoded code, with the code as id.
+   */
+  public synchronized List<Recognition> decode(final List<Recognition> detections, final Decoder decoder) {
+    final long start = System.nanoTime();
+    final List<Candidate> candidates = new ArrayList<Candidate>(detections.size() + rollover.size());
+    for (int i = 0; i < detections.size(); ++i) {
+      candidates.add(new Candidate(detections.get(i), 0));
+    }
+    for (final Candidate candidate : rollover) {
+      if (candidate.age > maxRolloverFrames || overlapsAny(candidate.detection, detections)) {
+        ++expired;
+      } else {
+        candidates.add(candidate);
+      }
+    }
+    rollover = new ArrayList<Candidate>();
+    Collections.sort(candidates, BY_SCORE);
+
+    List<Recognition> results = Collections.emptyList();
+    final List<Candidate> failed = new ArrayList<Candidate>(candidates.size());
+    int next = 0;
+    while (next < candidates.size() && (next == 0 || elapsedMs(start) < budgetMs)) {
+      final List<Candidate> wave = candidates.subList(next, Math.min(candidates.size(), next + parallelism));
+      final List<String> codes = decoder.decode(locationsOf(wave), false);
+      firstAttempts += wave.size();
+      for (int i = 0; i < wave.size(); ++i) {
+        if (codes.get(i) != null) {
+          results = add(results, codes.get(i), wave.get(i).detection, candidates.size());
+        } else {
+          failed.add(wave.get(i));
+        }
+      }
+      next += wave.size();
+    }
+    for (int i = next; i < candidates.size(); ++i) {
+      // Detections are recycled by the detector, keep copies for the next frame.
+      final Candidate candidate = candidates.get(i);
+      final Recognition detection = candidate.detection;
+      rollover.add(
+          new Candidate(
+              new Recognition(detection.getId(), detection.getTitle(), detection.getConfidence(), detection.getLocation()),
+              candidate.age + 1));
+      ++rolledOver;
+    }
+    int retry = 0;
+    while (retry < failed.size() && elapsedMs(start) < budgetMs) {
+      final List<Candidate> wave = failed.subList(retry, Math.min(failed.size(), retry + parallelism));
+      final List<String> codes = decoder.decode(locationsOf(wave), true);
+      retryAttempts += wave.size();
+      for (int i = 0; i < wave.size(); ++i) {
+        if (codes.get(i) != null) {
+          results = add(results, codes.get(i), wave.get(i).detection, candidates.size());
+        }
+      }
+      retry += wave.size();
+    }
+
+    ++frames;
+    totalMs += elapsedMs(start);
+    decoded += results.size();
+    return results;
+  }
+
+  // Results outlive the call in caches, so the list is only allocated on the first success.
+  private static List<Recognition> add(
+      List<Recognition> results, final String code, final Recognition detection, final int capacity) {
+    if (results.isEmpty()) {
+      results = new ArrayList<Recognition>(capacity);
+    }
+    results.add(new Recognition(code, detection.getTitle(), 1f, detection.getLocation()));
+    return results;
+  }
+
+  private static List<RectF> locationsOf(final List<Candidate> candidates) {
+    final List<RectF> locations = new ArrayList<RectF>(candidates.size());
+    for (int i = 0; i < candidates.size(); ++i) {
+      locations.add(candidates.get(i).detection.getLocation());
+    }
+    return locations;
+  }
+
+  private static boolean overlapsAny(final Recognition candidate, final List<Recognition> detections) {
+    final RectF location = candidate.getLocation();
+    for (int i = 0; i < detections.size(); ++i) {
+      if (NonMaxSuppression.intersectionOverUnion(location, detections.get(i).getLocation()) > ROLLOVER_IOU_THRESHOLD) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static float elapsedMs(final long startNs) {
+    return (System.nanoTime() - startNs) / 1e6f;
+  }
+
+  /** Drops rolled over candidates, e.g. when the frame size changed and their locations with it. */
+  public synchronized void reset() {
+    rollover = new ArrayList<Candidate>();
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "budget %.0fms, avg %.1fms, attempts %d first %d retried, decoded %d, rolled over %d, expired %d",
+        budgetMs,
+        frames > 0 ? totalMs / frames : 0,
+        firstAttempts,
+        retryAttempts,
+        decoded,
+        rolledOver,
+        expired);
+  }
+}
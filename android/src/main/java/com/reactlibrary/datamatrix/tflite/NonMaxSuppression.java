@@ -0,0 +1,71 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import android.graphics.RectF;
+
+import com.reactlibrary.datamatrix.tflite.Classifier.Recognition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/** Merges overlapping detections of the same object, e.g. from neighbouring tiles. */
+public class NonMaxSuppression {
+  private static final Comparator<Recognition> BY_CONFIDENCE =
+      new Comparator<Recognition>() {
+        @Override
+        public int compare(final Recognition lhs, final Recognition rhs) {
+          return Float.compare(rhs.getConfidence(), lhs.getConfidence());
+        }
+      };
+
+  private NonMaxSuppression() {}
+
+  /** Intersection over union of two boxes, 0 if they don't overlap. */
+  public static float intersectionOverUnion(final RectF a, final RectF b) {
+    final float intersection = intersectionArea(a, b);
+    final float union = a.width() * a.height() + b.width() * b.height() - intersection;
+    return union > 0 ? intersection / union : 0;
+  }
+
+  /** Intersection over the area of the smaller box, close to 1 if one box contains the other. */
+  public static float intersectionOverMinimum(final RectF a, final RectF b) {
+    final float minimum = Math.min(a.width() * a.height(), b.width() * b.height());
+    return minimum > 0 ? intersectionArea(a, b) / minimum : 0;
+  }
+
+  private static float intersectionArea(final RectF a, final RectF b) {
+    final float width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+    final float height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+    return width > 0 && height > 0 ? width * height : 0;
+  }
+
+  /**
+   * Returns the detections that no higher scoring detection overlaps by more than {@code
+   * iouThreshold}, or mostly contains by more than {@code containmentThreshold}. The latter catches
+   * the partial boxes a tile border cuts out of a code that another tile sees whole.
+   */
+  public static List<Recognition> apply(
+      final List<Recognition> detections, final float iouThreshold, final float containmentThreshold) {
+    final List<Recognition> sorted = new ArrayList<Recognition>(detections);
+    Collections.sort(sorted, BY_CONFIDENCE);
+    final List<Recognition> kept = new ArrayList<Recognition>(sorted.size());
+    final List<RectF> keptLocations = new ArrayList<RectF>(sorted.size());
+    for (final Recognition detection : sorted) {
+      final RectF location = detection.getLocation();
+      boolean suppressed = false;
+      for (final RectF other : keptLocations) {
+        if (intersectionOverUnion(location, other) > iouThreshold
+            || intersectionOverMinimum(location, other) > containmentThreshold) {
+          suppressed = true;
+          break;
+        }
+      }
+      if (!suppressed) {
+        kept.add(detection);
+        keptLocations.add(location);
+      }
+    }
+    return kept;
+  }
+}
@@ -0,0 +1,108 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import com.reactlibrary.datamatrix.env.ImageUtils;
+import com.reactlibrary.datamatrix.env.YuvFrame;
+import com.reactlibrary.datamatrix.tflite.Classifier.Recognition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detects again only around boxes that are known already, e.g. tracked codes, instead of on the
+ * whole frame. Each box is grown into a square region of at least the detector's input size, so a
+ * code is seen at its native resolution or close to it rather than squeezed with the whole frame.
+ * Boxes that fit into the region of an earlier one share it. All regions of a frame are detected
+ * in one {@link Classifier#detectImages} batch and merged with {@link NonMaxSuppression}.
+ */
+public class RoiDetector {
+  // Side of a region relative to the longer side of its box, so codes that moved stay inside.
+  private static final float ROI_EXPANSION = 2.5f;
+  // Regions per frame, the boxes beyond are left to the next full frame pass.
+  private static final int MAX_ROIS = 4;
+  private static final float NMS_IOU_THRESHOLD = 0.5f;
+  private static final float NMS_CONTAINMENT_THRESHOLD = 0.8f;
+
+  private final Classifier detector;
+  private final int inputSize;
+
+  private long frames;
+  private long regions;
+  private long boxesSkipped;
+
+  /** @param inputSize Width and height of the detector's input */
+  public RoiDetector(final Classifier detector, final int inputSize) {
+    this.detector = detector;
+    this.inputSize = inputSize;
+  }
+
+  /**
+   * Returns the merged detections in the regions around {@code boxes}, in frame coordinates. The
+   * recognitions are new and may be kept.
+   *
+   * @param orientation Rotation from the frame to the detector input, in degrees
+   */
+  public List<Recognition> detect(final YuvFrame frame, final List<RectF> boxes, final int orientation) {
+    final List<RectF> rois = new ArrayList<RectF>(Math.min(boxes.size(), MAX_ROIS));
+    for (final RectF box : boxes) {
+      if (containedInAny(box, rois)) {
+        continue;
+      }
+      if (rois.size() == MAX_ROIS) {
+        ++boxesSkipped;
+        continue;
+      }
+      rois.add(getRoi(box, frame.width, frame.height));
+    }
+    final List<Matrix> inputToFrames = new ArrayList<Matrix>(rois.size());
+    for (final RectF roi : rois) {
+      inputToFrames.add(getInputToFrame(roi, orientation));
+    }
+    final List<List<Recognition>> detected = detector.detectImages(Collections.nCopies(rois.size(), frame), inputToFrames);
+    final List<Recognition> detections = new ArrayList<Recognition>();
+    for (final List<Recognition> roi : detected) {
+      detections.addAll(roi);
+    }
+    synchronized (this) {
+      ++frames;
+      regions += rois.size();
+    }
+    return NonMaxSuppression.apply(detections, NMS_IOU_THRESHOLD, NMS_CONTAINMENT_THRESHOLD);
+  }
+
+  private static boolean containedInAny(final RectF box, final List<RectF> rois) {
+    for (final RectF roi : rois) {
+      if (roi.contains(box)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // A square around box, at least inputSize wide, shifted to lie within the frame where it fits.
+  private RectF getRoi(final RectF box, final int width, final int height) {
+    final float side = Math.min(Math.max(inputSize, ROI_EXPANSION * Math.max(box.width(), box.height())), Math.min(width, height));
+    final float left = Math.max(0, Math.min(width - side, box.centerX() - side / 2));
+    final float top = Math.max(0, Math.min(height - side, box.centerY() - side / 2));
+    return new RectF(left, top, left + side, top + side);
+  }
+
+  private Matrix getInputToFrame(final RectF roi, final int orientation) {
+    final Matrix frameToInput =
+        ImageUtils.getTransformationMatrix(
+            Math.round(roi.width()), Math.round(roi.height()), inputSize, inputSize, orientation, false);
+    frameToInput.preTranslate(-roi.left, -roi.top);
+    final Matrix inputToFrame = new Matrix();
+    frameToInput.invert(inputToFrame);
+    return inputToFrame;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "%d frames, %.1f regions per frame, %d boxes left to full passes",
+        frames, frames > 0 ? regions / (float) frames : 0, boxesSkipped);
+  }
+}
@@ -0,0 +1,278 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+import com.reactlibrary.datamatrix.env.Logger;
+import com.reactlibrary.datamatrix.env.LuminanceFrame;
+import com.reactlibrary.datamatrix.env.YuvFrame;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A {@link Classifier} backed by several {@link TFLiteObjectDetectionAPIModel}s, each with its own
+ * interpreter and buffers but all sharing one memory-mapped model. Every call runs on whichever
+ * interpreter is free, blocking until one is, so up to {@code poolSize} threads can detect at once.
+ * Splitting the cores between interpreters, e.g. two with two threads each instead of one with
+ * four, can be compared with the timings of {@link #getStatString()}.
+ */
+public class TFLiteDetectorPool implements Classifier {
+  private static final Logger LOGGER = new Logger();
+
+  private final List<TFLiteObjectDetectionAPIModel> models;
+  private final BlockingQueue<TFLiteObjectDetectionAPIModel> idle;
+  private final int threadsPerInterpreter;
+
+  // Copies of the detections for each calling thread, so they stay valid until that thread's next
+  // call, as they would with a single detector, without allocating per call.
+  private final ThreadLocal<List<Recognition>> detectionCopies =
+      new ThreadLocal<List<Recognition>>() {
+        @Override
+        protected List<Recognition> initialValue() {
+          return new ArrayList<Recognition>();
+        }
+      };
+  private final ThreadLocal<List<Recognition>> recycledCopies =
+      new ThreadLocal<List<Recognition>>() {
+        @Override
+        protected List<Recognition> initialValue() {
+          return new ArrayList<Recognition>();
+        }
+      };
+
+  private long calls;
+  private long totalWaitNs;
+  private long totalInferenceNs;
+  private int busy;
+  private int maxBusy;
+
+  private TFLiteDetectorPool(final List<TFLiteObjectDetectionAPIModel> models, final int threadsPerInterpreter) {
+    this.models = models;
+    this.idle = new ArrayBlockingQueue<TFLiteObjectDetectionAPIModel>(models.size(), false, models);
+    this.threadsPerInterpreter = threadsPerInterpreter;
+  }
+
+  /**
+   * Loads the model once and creates {@code poolSize} interpreters on it.
+   *
+   * @param threadsPerInterpreter Threads each interpreter runs on
+   */
+  public static TFLiteDetectorPool create(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final boolean isQuantized,
+      final int poolSize,
+      final int threadsPerInterpreter)
+      throws IOException {
+    final MappedByteBuffer model = TFLiteObjectDetectionAPIModel.loadModelFile(assetManager, modelFilename);
+    final Vector<String> labels = TFLiteObjectDetectionAPIModel.loadLabels(assetManager, labelFilename);
+    final List<TFLiteObjectDetectionAPIModel> models = new ArrayList<TFLiteObjectDetectionAPIModel>(poolSize);
+    for (int i = 0; i < Math.max(1, poolSize); ++i) {
+      models.add(TFLiteObjectDetectionAPIModel.create(model, labels, inputSize, isQuantized, threadsPerInterpreter));
+    }
+    LOGGER.i("Created %d interpreters with %d threads each", models.size(), threadsPerInterpreter);
+    return new TFLiteDetectorPool(models, threadsPerInterpreter);
+  }
+
+  public int getPoolSize() {
+    return models.size();
+  }
+
+  private TFLiteObjectDetectionAPIModel acquire() {
+    final long start = System.nanoTime();
+    TFLiteObjectDetectionAPIModel model = null;
+    boolean interrupted = false;
+    while (model == null) {
+      try {
+        model = idle.take();
+      } catch (final InterruptedException e) {
+        // Callers expect a result, keep waiting and restore the flag afterwards.
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      totalWaitNs += System.nanoTime() - start;
+      maxBusy = Math.max(maxBusy, ++busy);
+    }
+    return model;
+  }
+
+  private void release(final TFLiteObjectDetectionAPIModel model, final long startNs) {
+    synchronized (this) {
+      ++calls;
+      --busy;
+      totalInferenceNs += System.nanoTime() - startNs;
+    }
+    idle.add(model);
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap, final Bitmap originalBitmap) {
+    final TFLiteObjectDetectionAPIModel model = acquire();
+    final long start = System.nanoTime();
+    try {
+      return model.recognizeImage(bitmap, originalBitmap);
+    } finally {
+      release(model, start);
+    }
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap, final LuminanceFrame luminance) {
+    final TFLiteObjectDetectionAPIModel model = acquire();
+    final long start = System.nanoTime();
+    try {
+      return model.recognizeImage(bitmap, luminance);
+    } finally {
+      release(model, start);
+    }
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final YuvFrame frame, final Matrix inputToFrame) {
+    // Only detection needs an interpreter, decoding runs without holding one.
+    return decodeDetections(detectImage(frame, inputToFrame), frame.getLuminance());
+  }
+
+  /**
+   * The interpreter's recycled recognitions may be overwritten by another thread as soon as it is
+   * released, so they are copied into ones recycled per calling thread.
+   */
+  @Override
+  public List<Recognition> detectImage(final YuvFrame frame, final Matrix inputToFrame) {
+    final List<Recognition> copies = detectionCopies.get();
+    final List<Recognition> recycled = recycledCopies.get();
+    final TFLiteObjectDetectionAPIModel model = acquire();
+    final long start = System.nanoTime();
+    try {
+      final List<Recognition> detections = model.detectImage(frame, inputToFrame);
+      copies.clear();
+      for (int i = 0; i < detections.size(); ++i) {
+        if (recycled.size() <= i) {
+          recycled.add(new Recognition(null, null, null, null));
+        }
+        final Recognition copy = recycled.get(i);
+        copy.set(detections.get(i));
+        copies.add(copy);
+      }
+      return copies;
+    } finally {
+      release(model, start);
+    }
+  }
+
+  /** Runs the whole batch on one interpreter, its results are new and need no copying. */
+  @Override
+  public List<List<Recognition>> detectImages(final List<YuvFrame> frames, final List<Matrix> inputToFrames) {
+    final TFLiteObjectDetectionAPIModel model = acquire();
+    final long start = System.nanoTime();
+    try {
+      return model.detectImages(frames, inputToFrames);
+    } finally {
+      release(model, start);
+    }
+  }
+
+  @Override
+  public List<Recognition> decodeDetections(final List<Recognition> detections, final LuminanceFrame luminance) {
+    return models.get(0).decodeDetections(detections, luminance);
+  }
+
+  @Override
+  public List<Recognition> decodeDetections(final List<Recognition> detections, final LuminanceFrame luminance, final DecodeScheduler scheduler) {
+    return models.get(0).decodeDetections(detections, luminance, scheduler);
+  }
+
+  @Override
+  public void enableStatLogging(final boolean logStats) {}
+
+  @Override
+  public synchronized String getStatString() {
+    int mostDetections = 0;
+    for (final TFLiteObjectDetectionAPIModel model : models) {
+      mostDetections = Math.max(mostDetections, model.getMostDetections());
+    }
+    final TFLiteObjectDetectionAPIModel first = models.get(0);
+    return String.format(
+        "%d interpreters x %d threads, %d calls, wait avg %.1fms, inference avg %.1fms, max busy %d, "
+            + "%d of %d detections collected, most in an image %d",
+        models.size(),
+        threadsPerInterpreter,
+        calls,
+        calls > 0 ? totalWaitNs / 1e6f / calls : 0,
+        calls > 0 ? totalInferenceNs / 1e6f / calls : 0,
+        maxBusy,
+        first.getMaxDetections(),
+        first.getNumDetectionSlots(),
+        mostDetections);
+  }
+
+  @Override
+  public void close() {
+    for (final TFLiteObjectDetectionAPIModel model : models) {
+      model.close();
+    }
+  }
+
+  /** Sets the threads of every interpreter, waiting for each to be free. */
+  @Override
+  public void setNumThreads(final int numThreads) {
+    forEachIdle(model -> model.setNumThreads(numThreads));
+  }
+
+  @Override
+  public void setUseNNAPI(final boolean isChecked) {
+    forEachIdle(model -> model.setUseNNAPI(isChecked));
+  }
+
+  @Override
+  public void setMaxDetections(final int maxDetections) {
+    forEachIdle(model -> model.setMaxDetections(maxDetections));
+  }
+
+  // Decoding doesn't use the interpreters, so busy models can take the ladder right away.
+  @Override
+  public void setDecodeLadder(final DecodeLadder decodeLadder) {
+    for (int i = 0; i < models.size(); ++i) {
+      models.get(i).setDecodeLadder(decodeLadder);
+    }
+  }
+
+  @Override
+  public DecodeLadder getDecodeLadder() {
+    return models.get(0).getDecodeLadder();
+  }
+
+  private interface ModelAction {
+    void apply(TFLiteObjectDetectionAPIModel model);
+  }
+
+  // Interpreters can't be reconfigured while they run, so take each out of the pool first.
+  private void forEachIdle(final ModelAction action) {
+    final List<TFLiteObjectDetectionAPIModel> taken = new ArrayList<TFLiteObjectDetectionAPIModel>(models.size());
+    try {
+      for (int i = 0; i < models.size(); ++i) {
+        final TFLiteObjectDetectionAPIModel model = acquire();
+        taken.add(model);
+        action.apply(model);
+      }
+    } finally {
+      synchronized (this) {
+        busy -= taken.size();
+      }
+      idle.addAll(taken);
+    }
+  }
+}
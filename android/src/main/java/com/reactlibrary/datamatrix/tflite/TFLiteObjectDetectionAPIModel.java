@@ -20,6 +20,7 @@ import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.RectF;
@@ -28,6 +29,7 @@ import android.util.SparseArray;
 
 import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
 
 import org.opencv.android.Utils;
 import org.opencv.core.Core;
@@ -39,7 +41,10 @@ import org.opencv.imgproc.Imgproc;
 import org.tensorflow.lite.Interpreter;
 import com.reactlibrary.datamatrix.CameraActivity;
 import com.reactlibrary.datamatrix.DetectorActivity;
+import com.reactlibrary.datamatrix.env.ImageUtils;
 import com.reactlibrary.datamatrix.env.Logger;
+import com.reactlibrary.datamatrix.env.LuminanceFrame;
+import com.reactlibrary.datamatrix.env.YuvFrame;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -51,6 +56,7 @@ import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -63,31 +69,66 @@ import java.util.Vector;
 public class TFLiteObjectDetectionAPIModel implements Classifier {
   private static final Logger LOGGER = new Logger();
 
-  // Only return this many results.
-  private static final int NUM_DETECTIONS = 10;
+  // Detection slots of models whose output shape can't be read before the first run.
+  private static final int DEFAULT_NUM_DETECTIONS = 10;
+  // Detections scoring lower than this aren't decoded.
+  private static final float MIN_DETECTION_SCORE = 0.1f;
   // Float model
   private static final float IMAGE_MEAN = 128.0f;
   private static final float IMAGE_STD = 128.0f;
   // Number of threads in the java app
   private static final int NUM_THREADS = 4;
+  // Decode crops extend this far above and left of a detection ...
+  private static final int CROP_MARGIN = 50;
+  // ... and are this much larger than it.
+  private static final int CROP_EXTRA = 75;
+  // Plain, then thresholded, as crops were decoded before the ladder was configurable.
+  private static final DecodeLadder DEFAULT_DECODE_LADDER = new DecodeLadder(DecodeLadder.Stage.PLAIN, DecodeLadder.Stage.ADAPTIVE);
   private boolean isModelQuantized;
   // Config values.
   private int inputSize;
+  // Detections the model outputs per image, read from its output shape, and the ones collected.
+  private int numDetectionSlots;
+  private volatile int maxDetections;
+  private volatile DecodeLadder decodeLadder = DEFAULT_DECODE_LADDER;
+  private int mostDetections;
   // Pre-allocated buffers.
-  private Vector<String> labels = new Vector<String>();
+  private Vector<String> labels;
   private int[] intValues;
-  // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
+  // outputLocations: array of shape [Batchsize, numDetectionSlots,4]
   // contains the location of detected boxes
   private float[][][] outputLocations;
-  // outputClasses: array of shape [Batchsize, NUM_DETECTIONS]
+  // outputClasses: array of shape [Batchsize, numDetectionSlots]
   // contains the classes of detected boxes
   private float[][] outputClasses;
-  // outputScores: array of shape [Batchsize, NUM_DETECTIONS]
+  // outputScores: array of shape [Batchsize, numDetectionSlots]
   // contains the scores of detected boxes
   private float[][] outputScores;
   // numDetections: array of shape [Batchsize]
   // contains the number of detected boxes
   private float[] numDetections;
+  // Inputs and outputs as passed to the interpreter, built once around the buffers above.
+  private Object[] inputArray;
+  private Map<Integer, Object> outputMap;
+  // Recycled results of detectImage, one per output slot, and the list returning them.
+  private Recognition[] detectionPool;
+  private String[] detectionIds;
+  private ArrayList<Recognition> detections;
+  // Scratch space for collectDetections and the fused preprocessing.
+  private final RectF detectionRect = new RectF();
+  private final float[] inputToFrameValues = new float[9];
+  // Batch size the interpreter's input is currently resized to.
+  private int interpreterBatchSize = 1;
+  // Cleared once a batch fails, e.g. because the model's post-processing only handles one image.
+  private boolean batchingSupported = true;
+  // Input and outputs of detectImages, reallocated when the batch size changes.
+  private ByteBuffer batchData;
+  private float[][][] batchLocations;
+  private float[][] batchClasses;
+  private float[][] batchScores;
+  private float[] batchNumDetections;
+  private Object[] batchInputArray;
+  private Map<Integer, Object> batchOutputMap;
 
   private ByteBuffer imgData;
 
@@ -96,7 +137,7 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
   private TFLiteObjectDetectionAPIModel() {}
 
   /** Memory-map the model file in Assets. */
-  private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+  static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
       throws IOException {
     AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
     FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
@@ -122,8 +163,18 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
       final int inputSize,
       final boolean isQuantized)
       throws IOException {
-    final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
+    return create(
+        loadModelFile(assetManager, modelFilename),
+        loadLabels(assetManager, labelFilename),
+        inputSize,
+        isQuantized,
+        NUM_THREADS);
+  }
 
+  /** Reads the label file, one label per line. */
+  static Vector<String> loadLabels(final AssetManager assetManager, final String labelFilename)
+      throws IOException {
+    final Vector<String> labels = new Vector<String>();
     InputStream labelsInput = null;
     String actualFilename = labelFilename.split("file:///android_asset/")[1];
     labelsInput = assetManager.open(actualFilename);
@@ -131,15 +182,33 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     br = new BufferedReader(new InputStreamReader(labelsInput));
     String line;
     while ((line = br.readLine()) != null) {
-      LOGGER.w(line);
-      d.labels.add(line);
+      labels.add(line);
     }
     br.close();
+    LOGGER.i("Loaded %d labels", labels.size());
+    return labels;
+  }
 
+  /**
+   * Creates a detector with its own interpreter and buffers around an already loaded model, which
+   * several detectors may share.
+   *
+   * @param model The memory-mapped model, see {@link #loadModelFile}
+   * @param labels The labels of the model's classes, see {@link #loadLabels}
+   * @param numThreads Threads the interpreter runs on
+   */
+  static TFLiteObjectDetectionAPIModel create(
+      final MappedByteBuffer model,
+      final Vector<String> labels,
+      final int inputSize,
+      final boolean isQuantized,
+      final int numThreads) {
+    final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
+    d.labels = labels;
     d.inputSize = inputSize;
 
     try {
-      d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
+      d.tfLite = new Interpreter(model);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
@@ -156,16 +225,177 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     d.imgData.order(ByteOrder.nativeOrder());
     d.intValues = new int[d.inputSize * d.inputSize];
 
-    d.tfLite.setNumThreads(NUM_THREADS);
-    d.outputLocations = new float[1][NUM_DETECTIONS][4];
-    d.outputClasses = new float[1][NUM_DETECTIONS];
-    d.outputScores = new float[1][NUM_DETECTIONS];
+    d.tfLite.setNumThreads(numThreads);
+    d.numDetectionSlots = readNumDetections(d.tfLite);
+    d.maxDetections = d.numDetectionSlots;
+    d.outputLocations = new float[1][d.numDetectionSlots][4];
+    d.outputClasses = new float[1][d.numDetectionSlots];
+    d.outputScores = new float[1][d.numDetectionSlots];
     d.numDetections = new float[1];
+    d.inputArray = new Object[] {d.imgData};
+    d.outputMap = new HashMap<>();
+    d.outputMap.put(0, d.outputLocations);
+    d.outputMap.put(1, d.outputClasses);
+    d.outputMap.put(2, d.outputScores);
+    d.outputMap.put(3, d.numDetections);
+    d.detectionPool = new Recognition[d.numDetectionSlots];
+    d.detectionIds = new String[d.numDetectionSlots];
+    for (int i = 0; i < d.numDetectionSlots; ++i) {
+      d.detectionPool[i] = new Recognition(null, null, null, null);
+      d.detectionIds[i] = String.valueOf(i);
+    }
+    d.detections = new ArrayList<>(d.numDetectionSlots);
     return d;
   }
 
+  /**
+   * Reads the detections per image from the shape of the boxes output, [batch, detections, 4],
+   * which the post-processing op of the model fixes.
+   */
+  private static int readNumDetections(final Interpreter interpreter) {
+    int[] shape = null;
+    try {
+      shape = interpreter.getOutputTensor(0).shape();
+    } catch (final IllegalArgumentException | IllegalStateException e) {
+      LOGGER.w("Can't read the output shape: %s", e.getMessage());
+    }
+    if (shape == null || shape.length != 3 || shape[1] <= 0) {
+      LOGGER.w("Unexpected output shape, assuming %d detections", DEFAULT_NUM_DETECTIONS);
+      return DEFAULT_NUM_DETECTIONS;
+    }
+    LOGGER.i("Model outputs up to %d detections", shape[1]);
+    return shape[1];
+  }
+
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap, final Bitmap originalBitmap) {
+    feed(bitmap);
+    runInference();
+    return decodeDetections(collectDetections(DetectorActivity.getTransformMatrix()), originalBitmap, null);
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap, final LuminanceFrame luminance) {
+    feed(bitmap);
+    runInference();
+    return decodeDetections(collectDetections(DetectorActivity.getTransformMatrix()), null, luminance);
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final YuvFrame frame, final Matrix inputToFrame) {
+    return decodeDetections(detectImage(frame, inputToFrame), frame.getLuminance());
+  }
+
+  @Override
+  public List<Recognition> detectImage(final YuvFrame frame, final Matrix inputToFrame) {
+    feed(frame, inputToFrame);
+    runInference();
+    return collectDetections(inputToFrame);
+  }
+
+  /**
+   * Resizes the input to hold all images and runs them in one interpreter call. If the model
+   * can't run the batch, images are detected one at a time from then on.
+   */
+  @Override
+  public List<List<Recognition>> detectImages(final List<YuvFrame> frames, final List<Matrix> inputToFrames) {
+    final int batchSize = frames.size();
+    final List<List<Recognition>> results = new ArrayList<>(batchSize);
+    if (batchSize > 1 && batchingSupported) {
+      try {
+        feed(frames, inputToFrames);
+        Trace.beginSection("runBatch");
+        try {
+          tfLite.runForMultipleInputsOutputs(batchInputArray, batchOutputMap);
+        } finally {
+          Trace.endSection();
+        }
+        for (int b = 0; b < batchSize; ++b) {
+          final List<Recognition> imageDetections = new ArrayList<>(numDetectionSlots);
+          collectDetections(inputToFrames.get(b), batchLocations[b], batchClasses[b], batchScores[b], batchNumDetections[b], null, imageDetections);
+          results.add(imageDetections);
+        }
+        return results;
+      } catch (final IllegalArgumentException | IllegalStateException e) {
+        LOGGER.w("Batched inference failed, detecting one image at a time: %s", e.getMessage());
+        batchingSupported = false;
+        results.clear();
+      }
+    }
+    for (int b = 0; b < batchSize; ++b) {
+      final List<Recognition> imageDetections = detectImage(frames.get(b), inputToFrames.get(b));
+      final List<Recognition> copies = new ArrayList<>(imageDetections.size());
+      for (int i = 0; i < imageDetections.size(); ++i) {
+        final Recognition copy = new Recognition(null, null, null, null);
+        copy.set(imageDetections.get(i));
+        copies.add(copy);
+      }
+      results.add(copies);
+    }
+    return results;
+  }
+
+  @Override
+  public List<Recognition> decodeDetections(final List<Recognition> detections, final LuminanceFrame luminance) {
+    return decodeDetections(detections, null, luminance);
+  }
+
+  @Override
+  public List<Recognition> decodeDetections(final List<Recognition> detections, final LuminanceFrame luminance, final DecodeScheduler scheduler) {
+    final DecodeLadder ladder = decodeLadder;
+    final List<Recognition> recognitions =
+        scheduler.decode(detections, (locations, retry) -> decode(luminance, locations, ladder, retry, CameraActivity.decoderPool, Integer.MAX_VALUE));
+    for (int i = 0; i < recognitions.size(); ++i) {
+      CameraActivity.addBarcode(recognitions.get(i).getId());
+    }
+    return recognitions;
+  }
+
+  private void feed(final YuvFrame frame, final Matrix inputToFrame) {
+    Trace.beginSection("preprocessYuv");
+    inputToFrame.getValues(inputToFrameValues);
+    imgData.rewind();
+    ImageUtils.convertYUV420ToTensor(frame, inputToFrameValues, inputSize, inputSize, isModelQuantized, IMAGE_MEAN, IMAGE_STD, imgData);
+    Trace.endSection(); // preprocessYuv
+  }
+
+  // Packs the images one after the other into the batched input, resizing it if needed.
+  private void feed(final List<YuvFrame> frames, final List<Matrix> inputToFrames) {
+    final int batchSize = frames.size();
+    if (batchLocations == null || batchLocations.length != batchSize) {
+      batchData = ByteBuffer.allocateDirect(batchSize * imgData.capacity());
+      batchData.order(ByteOrder.nativeOrder());
+      batchLocations = new float[batchSize][numDetectionSlots][4];
+      batchClasses = new float[batchSize][numDetectionSlots];
+      batchScores = new float[batchSize][numDetectionSlots];
+      batchNumDetections = new float[batchSize];
+      batchInputArray = new Object[] {batchData};
+      batchOutputMap = new HashMap<>();
+      batchOutputMap.put(0, batchLocations);
+      batchOutputMap.put(1, batchClasses);
+      batchOutputMap.put(2, batchScores);
+      batchOutputMap.put(3, batchNumDetections);
+    }
+    resizeInput(batchSize);
+
+    Trace.beginSection("preprocessYuvBatch");
+    batchData.rewind();
+    for (int b = 0; b < batchSize; ++b) {
+      inputToFrames.get(b).getValues(inputToFrameValues);
+      ImageUtils.convertYUV420ToTensor(frames.get(b), inputToFrameValues, inputSize, inputSize, isModelQuantized, IMAGE_MEAN, IMAGE_STD, batchData);
+    }
+    Trace.endSection(); // preprocessYuvBatch
+  }
+
+  // Resizing reallocates the interpreter's tensors, so it is only done when the batch size changes.
+  private void resizeInput(final int batchSize) {
+    if (interpreterBatchSize != batchSize) {
+      tfLite.resizeInput(0, new int[] {batchSize, inputSize, inputSize, 3});
+      interpreterBatchSize = batchSize;
+    }
+  }
+
+  private void feed(final Bitmap bitmap) {
     // Log this method so that it can be analyzed with systrace.
     //Trace.beginSection("recognizeImage");
 
@@ -173,70 +403,137 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     // Preprocess the image data from 0-255 int to normalized float based
     // on the provided parameters.
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
     imgData.rewind();
-    for (int i = 0; i < inputSize; ++i) {
-      for (int j = 0; j < inputSize; ++j) {
-        int pixelValue = intValues[i * inputSize + j];
-        if (isModelQuantized) {
-          // Quantized model
-          imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-          imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-          imgData.put((byte) (pixelValue & 0xFF));
-        } else { // Float model
-          imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-        }
-      }
-    }
+    ImageUtils.convertARGB8888ToTensor(intValues, inputSize * inputSize, isModelQuantized, IMAGE_MEAN, IMAGE_STD, imgData);
     Trace.endSection(); // preprocessBitmap
+  }
 
-    // Copy the input data into TensorFlow.
-    Trace.beginSection("feed");
-    outputLocations = new float[1][NUM_DETECTIONS][4];
-    outputClasses = new float[1][NUM_DETECTIONS];
-    outputScores = new float[1][NUM_DETECTIONS];
-    numDetections = new float[1];
-
-    Object[] inputArray = {imgData};
-    Map<Integer, Object> outputMap = new HashMap<>();
-    outputMap.put(0, outputLocations);
-    outputMap.put(1, outputClasses);
-    outputMap.put(2, outputScores);
-    outputMap.put(3, numDetections);
-    Trace.endSection();
-
+  // Package-private so tests can tell the interpreter's own allocations from the rest.
+  void runInference() {
+    // The output arrays are overwritten in place, nothing is allocated per call.
+    resizeInput(1);
     // Run the inference call.
     Trace.beginSection("run");
     tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
     Trace.endSection();
+  }
 
+  /**
+   * Returns the detections of the last inference call worth decoding, mapped into frame
+   * coordinates by {@code inputToFrame}. The list and its recognitions are recycled by the next
+   * call.
+   */
+  private List<Recognition> collectDetections(final Matrix inputToFrame) {
     // Show the best detections.
     // after scaling them back to the input size.
-    final ArrayList<Recognition> recognitions = new ArrayList<>(NUM_DETECTIONS);
-    for (int i = 0; i < NUM_DETECTIONS; ++i) {
+    detections.clear();
+    collectDetections(inputToFrame, outputLocations[0], outputClasses[0], outputScores[0], numDetections[0], detectionPool, detections);
+    return detections;
+  }
 
-      final RectF detection = new RectF(outputLocations[0][i][1] * inputSize, outputLocations[0][i][0] * inputSize, outputLocations[0][i][3] * inputSize, outputLocations[0][i][2] * inputSize);
+  /**
+   * Adds the detections of one image worth decoding to {@code out}, overwriting the {@code
+   * recycled} ones, or new ones if it is null. The post-processing op sorts detections by score,
+   * so this stops at the first one scoring too low.
+   */
+  private void collectDetections(
+      final Matrix inputToFrame,
+      final float[][] locations,
+      final float[] classes,
+      final float[] scores,
+      final float count,
+      final Recognition[] recycled,
+      final List<Recognition> out) {
+    final int limit = Math.min(maxDetections, Math.min(numDetectionSlots, (int) count));
+    for (int i = 0; i < limit; ++i) {
       int labelOffset = 1;
 
-      if(outputScores[0][i]>0.1f){
-        Matrix matrix = DetectorActivity.getTransformMatrix();
-        matrix.mapRect(detection);
-
-        Bitmap dataMatrix = getCropBitmap(originalBitmap, detection,false);
-        String result = decode(dataMatrix);
-        if (result != null) {
-          CameraActivity.addBarcode(result);
-          recognitions.add(new Recognition( result, labels.get((int) outputClasses[0][i] + labelOffset),1f, detection));
-        }else{
-           dataMatrix = getCropBitmap(originalBitmap, detection,true);
-           result = decode(dataMatrix);
-           if (result != null) {
-             CameraActivity.addBarcode(result);
-             recognitions.add(new Recognition(result, labels.get((int) outputClasses[0][i] + labelOffset),1f, detection));
-           }
-       }
+      if (scores[i] <= MIN_DETECTION_SCORE) {
+        break;
+      }
+      detectionRect.set(locations[i][1] * inputSize, locations[i][0] * inputSize, locations[i][3] * inputSize, locations[i][2] * inputSize);
+      inputToFrame.mapRect(detectionRect);
+      final String title = labels.get((int) classes[i] + labelOffset);
+      if (recycled != null) {
+        final Recognition detection = recycled[i];
+        detection.set(detectionIds[i], title, scores[i], detectionRect);
+        out.add(detection);
+      } else {
+        out.add(new Recognition(detectionIds[i], title, scores[i], new RectF(detectionRect)));
+      }
+    }
+    mostDetections = Math.max(mostDetections, out.size());
+  }
+
+  /**
+   * Caps the detections collected per image, e.g. lower for speed, or 0 for all the model
+   * outputs. The model's own limit can't be raised without exporting it again.
+   */
+  @Override
+  public void setMaxDetections(final int maxDetections) {
+    this.maxDetections = maxDetections > 0 ? Math.min(maxDetections, numDetectionSlots) : numDetectionSlots;
+    if (maxDetections > numDetectionSlots) {
+      LOGGER.w("Model outputs at most %d detections, %d requested", numDetectionSlots, maxDetections);
+    }
+  }
+
+  @Override
+  public void setDecodeLadder(final DecodeLadder decodeLadder) {
+    this.decodeLadder = decodeLadder != null ? decodeLadder : DEFAULT_DECODE_LADDER;
+  }
+
+  @Override
+  public DecodeLadder getDecodeLadder() {
+    return decodeLadder;
+  }
+
+  int getMaxDetections() {
+    return maxDetections;
+  }
+
+  int getNumDetectionSlots() {
+    return numDetectionSlots;
+  }
+
+  int getMostDetections() {
+    return mostDetections;
+  }
+
+  /**
+   * Crops and decodes every detection, either from the full frame bitmap, plain then thresholded,
+   * or, when {@code originalBitmap} is null, from the frame's luminance plane with the whole {@link
+   * DecodeLadder} on all workers of the decoder pool.
+   */
+  private List<Recognition> decodeDetections(final List<Recognition> detections, final Bitmap originalBitmap, final LuminanceFrame luminance) {
+    List<String> codes = null;
+    if (originalBitmap == null) {
+      final List<RectF> locations = new ArrayList<>(detections.size());
+      for (int i = 0; i < detections.size(); ++i) {
+        locations.add(detections.get(i).getLocation());
+      }
+      final DecodeLadder ladder = decodeLadder;
+      codes = decode(luminance, locations, ladder, 0, ladder.getStageCount(), CameraActivity.decoderPool, Integer.MAX_VALUE);
+    }
+    // Results outlive the call in caches, so only this list is allocated, and only on success.
+    List<Recognition> recognitions = Collections.emptyList();
+    for (int i = 0; i < detections.size(); ++i) {
+      final Recognition detection = detections.get(i);
+      final RectF location = detection.getLocation();
+      String result;
+      if (codes != null) {
+        result = codes.get(i);
+      } else {
+        result = decode(getCropBitmap(originalBitmap, location, false));
+        if (result == null) {
+          result = decode(getCropBitmap(originalBitmap, location, true));
+        }
+      }
+      if (result != null) {
+        CameraActivity.addBarcode(result);
+        if (recognitions.isEmpty()) {
+          recognitions = new ArrayList<>(detections.size());
+        }
+        recognitions.add(new Recognition(result, detection.getTitle(), 1f, location));
       }
     }
     //Trace.endSection(); // "recognizeImage"
@@ -248,7 +545,7 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
 
   @Override
   public String getStatString() {
-    return "";
+    return String.format("%d of %d detections collected, most in an image %d", maxDetections, numDetectionSlots, mostDetections);
   }
 
   @Override
@@ -265,17 +562,86 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
 
 
 
+  // Crops luminance around one detection and climbs the ladder's stages from first to end.
+  private static String decode(
+      final LuminanceFrame luminance, final RectF location, final DecodeLadder ladder, final int first, final int end, final BarcodeDetector detector) {
+    final LuminanceFrame crop = luminance.crop(location, CROP_MARGIN, CROP_EXTRA);
+    return ladder.decode(crop, first, end, prepared -> decode(prepared, detector));
+  }
+
+  /**
+   * Crops and decodes around every location on up to {@code parallelism} workers of {@code pool},
+   * or one after another with the shared detector if there's no pool. The first stage of the
+   * ladder is tried, or the rest of it on {@code retry}. Codes are returned in the order of {@code
+   * locations}, null where there is none.
+   */
+  private static List<String> decode(
+      final LuminanceFrame luminance,
+      final List<RectF> locations,
+      final DecodeLadder ladder,
+      final boolean retry,
+      final BarcodeDecoderPool pool,
+      final int parallelism) {
+    return decode(luminance, locations, ladder, retry ? 1 : 0, retry ? ladder.getStageCount() : 1, pool, parallelism);
+  }
+
+  // Same as above, climbing the ladder's stages from first to end.
+  private static List<String> decode(
+      final LuminanceFrame luminance,
+      final List<RectF> locations,
+      final DecodeLadder ladder,
+      final int first,
+      final int end,
+      final BarcodeDecoderPool pool,
+      final int parallelism) {
+    if (pool == null) {
+      final List<String> codes = new ArrayList<>(locations.size());
+      for (int i = 0; i < locations.size(); ++i) {
+        codes.add(decode(luminance, locations.get(i), ladder, first, end, CameraActivity.barcodeDetector));
+      }
+      return codes;
+    }
+    final List<BarcodeDecoderPool.Task<String>> tasks = new ArrayList<>(locations.size());
+    for (int i = 0; i < locations.size(); ++i) {
+      final RectF location = locations.get(i);
+      tasks.add(detector -> decode(luminance, location, ladder, first, end, detector));
+    }
+    return pool.runAll(tasks, parallelism);
+  }
+
+  /**
+   * Decodes the crops around {@code locations} with the whole ladder, with 1 up to all workers of
+   * {@code pool}, and returns the average milliseconds per round for each worker count, to see how
+   * decoding scales. One unmeasured round first warms the detectors and the ladder's stages.
+   */
+  public static float[] benchmarkDecoding(
+      final List<RectF> locations, final LuminanceFrame luminance, final DecodeLadder ladder, final BarcodeDecoderPool pool, final int rounds) {
+    decode(luminance, locations, ladder, false, pool, pool.getSize());
+    decode(luminance, locations, ladder, true, pool, pool.getSize());
+    final float[] roundMs = new float[pool.getSize()];
+    for (int workers = 1; workers <= pool.getSize(); ++workers) {
+      final long start = System.nanoTime();
+      for (int round = 0; round < rounds; ++round) {
+        decode(luminance, locations, ladder, false, pool, workers);
+        decode(luminance, locations, ladder, true, pool, workers);
+      }
+      roundMs[workers - 1] = (System.nanoTime() - start) / 1e6f / rounds;
+    }
+    return roundMs;
+  }
+
+
   private static Bitmap getCropBitmap(Bitmap source, RectF cropRectF,boolean threshold) {
     float width=0;
     float height=0;
 
-    if(cropRectF.width()+75<source.getWidth())
-      width=cropRectF.width()+75;
+    if(cropRectF.width()+CROP_EXTRA<source.getWidth())
+      width=cropRectF.width()+CROP_EXTRA;
     else
       width=source.getWidth();
 
-    if(cropRectF.height()+75<source.getHeight())
-      height=cropRectF.height()+75;
+    if(cropRectF.height()+CROP_EXTRA<source.getHeight())
+      height=cropRectF.height()+CROP_EXTRA;
     else
       height=source.getHeight();
 
@@ -288,7 +654,7 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     cavas.drawRect(new RectF(0, 0, width, height), paint);
 
     Matrix matrix = new Matrix();
-    matrix.postTranslate(-cropRectF.left+50, -cropRectF.top+50);
+    matrix.postTranslate(-cropRectF.left+CROP_MARGIN, -cropRectF.top+CROP_MARGIN);
     cavas.drawBitmap(source, matrix, paint);
 
 
@@ -312,6 +678,11 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     return resultBitmap;
   }
 
+  private static String decode(LuminanceFrame crop, BarcodeDetector detector){
+    Frame frame = new Frame.Builder().setImageData(ByteBuffer.wrap(crop.toNv21()), crop.width, crop.height, ImageFormat.NV21).build();
+    return decode(frame, detector);
+  }
+
   private static String decode(Bitmap bMap){
     /*
     int[] intArray = new int[bMap.getWidth()*bMap.getHeight()];
@@ -331,7 +702,11 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     }
      */
     Frame frame = new Frame.Builder().setBitmap(bMap).build();
-    SparseArray<Barcode> barcodes =CameraActivity.barcodeDetector.detect(frame);
+    return decode(frame, CameraActivity.barcodeDetector);
+  }
+
+  private static String decode(Frame frame, BarcodeDetector detector){
+    SparseArray<Barcode> barcodes =detector.detect(frame);
     if(barcodes.size()>0) {
       Barcode thisCode = barcodes.valueAt(0);
       System.out.print(thisCode.rawValue);
@@ -0,0 +1,211 @@
+package com.reactlibrary.datamatrix.tflite;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import com.reactlibrary.datamatrix.env.ImageUtils;
+import com.reactlibrary.datamatrix.env.Logger;
+import com.reactlibrary.datamatrix.env.YuvFrame;
+import com.reactlibrary.datamatrix.tflite.Classifier.Recognition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Detects small codes by running the detector on overlapping tiles of the frame as well as on the
+ * whole frame, so each tile is squeezed into the model input far less. Boxes are mapped back into
+ * frame coordinates and merged across tiles with {@link NonMaxSuppression}. Tiles are split into
+ * {@code parallelism} batches, each detected in one {@link Classifier#detectImages} call, and the
+ * batches run in parallel, which pays off with a {@link TFLiteDetectorPool} of as many
+ * interpreters.
+ *
+ * <p>The grid adapts to load: every {@link #WINDOW_FRAMES} frames the average detection time is
+ * compared with the budget, and the grid gets coarser when over it and finer when well under it.
+ */
+public class TiledDetector {
+  private static final Logger LOGGER = new Logger();
+
+  // Grids along the long and the short side of the frame, from the whole frame alone to the finest.
+  private static final int[][] GRIDS = {{1, 1}, {2, 1}, {3, 2}, {4, 3}};
+  // Fraction of a tile that overlaps its neighbours, so codes on a border are whole in one tile.
+  private static final float TILE_OVERLAP = 0.2f;
+  private static final float NMS_IOU_THRESHOLD = 0.5f;
+  private static final float NMS_CONTAINMENT_THRESHOLD = 0.8f;
+  private static final int WINDOW_FRAMES = 10;
+  // Refines the grid only if detection stays below this fraction of the budget.
+  private static final float REFINE_HEADROOM = 0.5f;
+
+  private final Classifier detector;
+  private final int inputSize;
+  private final float budgetMs;
+  private final int parallelism;
+  private final ExecutorService executor;
+
+  private int level;
+  private List<List<Matrix>> tileBatches;
+  private int configuredWidth;
+  private int configuredHeight;
+  private int configuredOrientation;
+  private int configuredLevel = -1;
+
+  private int frames;
+  private float totalMs;
+  private long tilesDetected;
+  private long batchesDetected;
+
+  /**
+   * @param inputSize Width and height of the detector's input
+   * @param parallelism Batches of tiles detected at once, 1 to detect all tiles in one batch on the
+   *     calling thread
+   * @param budgetMs Detection time per frame the grid is adapted to
+   */
+  public TiledDetector(final Classifier detector, final int inputSize, final int parallelism, final float budgetMs) {
+    this.detector = detector;
+    this.inputSize = inputSize;
+    this.budgetMs = budgetMs;
+    this.parallelism = Math.max(1, parallelism);
+    this.executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+    this.level = 1;
+  }
+
+  /**
+   * Returns the merged detections of all tiles in frame coordinates. Unlike {@link
+   * Classifier#detectImage}, the recognitions are new and may be kept.
+   *
+   * @param orientation Rotation from the frame to the detector input, in degrees
+   */
+  public List<Recognition> detect(final YuvFrame frame, final int orientation) {
+    final long start = System.nanoTime();
+    configure(frame.width, frame.height, orientation);
+
+    final List<Recognition> detections = new ArrayList<Recognition>();
+    if (executor == null || tileBatches.size() == 1) {
+      for (final List<Matrix> batch : tileBatches) {
+        detections.addAll(detectBatch(frame, batch));
+      }
+    } else {
+      final List<Future<List<Recognition>>> batches = new ArrayList<Future<List<Recognition>>>(tileBatches.size());
+      for (final List<Matrix> batch : tileBatches) {
+        batches.add(
+            executor.submit(
+                new Callable<List<Recognition>>() {
+                  @Override
+                  public List<Recognition> call() {
+                    return detectBatch(frame, batch);
+                  }
+                }));
+      }
+      for (final Future<List<Recognition>> batch : batches) {
+        try {
+          detections.addAll(batch.get());
+        } catch (final InterruptedException | ExecutionException e) {
+          LOGGER.e(e, "Tile detection failed");
+        }
+      }
+    }
+    for (final List<Matrix> batch : tileBatches) {
+      tilesDetected += batch.size();
+    }
+    batchesDetected += tileBatches.size();
+
+    final List<Recognition> merged =
+        NonMaxSuppression.apply(detections, NMS_IOU_THRESHOLD, NMS_CONTAINMENT_THRESHOLD);
+    adapt((System.nanoTime() - start) / 1e6f);
+    return merged;
+  }
+
+  private List<Recognition> detectBatch(final YuvFrame frame, final List<Matrix> inputToFrames) {
+    final List<List<Recognition>> tiles =
+        detector.detectImages(Collections.nCopies(inputToFrames.size(), frame), inputToFrames);
+    final List<Recognition> detections = new ArrayList<Recognition>();
+    for (final List<Recognition> tile : tiles) {
+      detections.addAll(tile);
+    }
+    return detections;
+  }
+
+  private void adapt(final float frameMs) {
+    ++frames;
+    totalMs += frameMs;
+    if (frames < WINDOW_FRAMES) {
+      return;
+    }
+    final float averageMs = totalMs / frames;
+    frames = 0;
+    totalMs = 0;
+    if (averageMs > budgetMs && level > 0) {
+      --level;
+    } else if (averageMs < budgetMs * REFINE_HEADROOM && level < GRIDS.length - 1) {
+      ++level;
+    } else {
+      return;
+    }
+    LOGGER.i("Tiled detection took %.1fms on average, switching to a %dx%d grid", averageMs, GRIDS[level][0], GRIDS[level][1]);
+  }
+
+  // Builds the input to frame transforms of the whole frame and every tile of the current grid, and
+  // deals them into batches of about equal size.
+  private void configure(final int width, final int height, final int orientation) {
+    if (width == configuredWidth && height == configuredHeight && orientation == configuredOrientation && level == configuredLevel) {
+      return;
+    }
+    final boolean landscape = width >= height;
+    final int columns = landscape ? GRIDS[level][0] : GRIDS[level][1];
+    final int rows = landscape ? GRIDS[level][1] : GRIDS[level][0];
+
+    final List<Matrix> transforms = new ArrayList<Matrix>(1 + columns * rows);
+    transforms.add(getInputToFrame(new RectF(0, 0, width, height), orientation));
+    if (columns * rows > 1) {
+      final float tileWidth = width / (1 + (columns - 1) * (1 - TILE_OVERLAP));
+      final float tileHeight = height / (1 + (rows - 1) * (1 - TILE_OVERLAP));
+      for (int row = 0; row < rows; ++row) {
+        for (int column = 0; column < columns; ++column) {
+          final float left = column * tileWidth * (1 - TILE_OVERLAP);
+          final float top = row * tileHeight * (1 - TILE_OVERLAP);
+          transforms.add(getInputToFrame(new RectF(left, top, left + tileWidth, top + tileHeight), orientation));
+        }
+      }
+    }
+    final int batchCount = Math.min(parallelism, transforms.size());
+    final List<List<Matrix>> batches = new ArrayList<List<Matrix>>(batchCount);
+    for (int b = 0; b < batchCount; ++b) {
+      batches.add(new ArrayList<Matrix>());
+    }
+    for (int i = 0; i < transforms.size(); ++i) {
+      batches.get(i % batchCount).add(transforms.get(i));
+    }
+    tileBatches = batches;
+    configuredWidth = width;
+    configuredHeight = height;
+    configuredOrientation = orientation;
+    configuredLevel = level;
+  }
+
+  private Matrix getInputToFrame(final RectF tile, final int orientation) {
+    final Matrix frameToInput =
+        ImageUtils.getTransformationMatrix(
+            Math.round(tile.width()), Math.round(tile.height()), inputSize, inputSize, orientation, false);
+    frameToInput.preTranslate(-tile.left, -tile.top);
+    final Matrix inputToFrame = new Matrix();
+    frameToInput.invert(inputToFrame);
+    return inputToFrame;
+  }
+
+  public String getStatString() {
+    return String.format(
+        "grid %dx%d, %d tiles detected in %d batches",
+        GRIDS[level][0], GRIDS[level][1], tilesDetected, batchesDetected);
+  }
+
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.reactlibrary.datamatrix.tracking;
+
+import android.graphics.RectF;
+
+/**
+ * Constant velocity Kalman filter over a box, with the centre and size as four independent axes
+ * of position and velocity. Time is counted in frames.
+ */
+class BoxKalmanFilter {
+  // Variance of the acceleration between frames, in pixels squared.
+  private static final float PROCESS_NOISE = 4f;
+  // Variance of a detected edge, in pixels squared.
+  private static final float MEASUREMENT_NOISE = 25f;
+  // Variance of the velocity of a new box, which nothing is known about yet.
+  private static final float INITIAL_VELOCITY_VARIANCE = 100f;
+
+  // One coordinate and its velocity, with their covariance.
+  private static class Axis {
+    float position;
+    float velocity;
+    float p00;
+    float p01;
+    float p11;
+
+    Axis(final float position) {
+      this.position = position;
+      this.p00 = MEASUREMENT_NOISE;
+      this.p11 = INITIAL_VELOCITY_VARIANCE;
+    }
+
+    void predict(final float dt) {
+      position += velocity * dt;
+      final float dt2 = dt * dt;
+      p00 += 2 * dt * p01 + dt2 * p11 + PROCESS_NOISE * dt2 * dt2 / 4;
+      p01 += dt * p11 + PROCESS_NOISE * dt2 * dt / 2;
+      p11 += PROCESS_NOISE * dt2;
+    }
+
+    void update(final float measured) {
+      final float innovation = measured - position;
+      final float k0 = p00 / (p00 + MEASUREMENT_NOISE);
+      final float k1 = p01 / (p00 + MEASUREMENT_NOISE);
+      position += k0 * innovation;
+      velocity += k1 * innovation;
+      p11 -= k1 * p01;
+      p01 *= 1 - k0;
+      p00 *= 1 - k0;
+    }
+  }
+
+  private final Axis centerX;
+  private final Axis centerY;
+  private final Axis width;
+  private final Axis height;
+
+  BoxKalmanFilter(final RectF location) {
+    centerX = new Axis(location.centerX());
+    centerY = new Axis(location.centerY());
+    width = new Axis(location.width());
+    height = new Axis(location.height());
+  }
+
+  /** Moves the box {@code frames} ahead. */
+  void predict(final float frames) {
+    centerX.predict(frames);
+    centerY.predict(frames);
+    width.predict(frames);
+    height.predict(frames);
+  }
+
+  void update(final RectF measured) {
+    centerX.update(measured.centerX());
+    centerY.update(measured.centerY());
+    width.update(measured.width());
+    height.update(measured.height());
+  }
+
+  /**
+   * Sets {@code out} to {@code measured} moved {@code frames} ahead at the box's velocity, so a
+   * measurement taken before the box's last prediction can update it.
+   */
+  void extrapolate(final RectF measured, final float frames, final RectF out) {
+    final float x = measured.centerX() + centerX.velocity * frames;
+    final float y = measured.centerY() + centerY.velocity * frames;
+    final float halfWidth = Math.max(0, measured.width() + width.velocity * frames) / 2;
+    final float halfHeight = Math.max(0, measured.height() + height.velocity * frames) / 2;
+    out.set(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight);
+  }
+
+  void getLocation(final RectF out) {
+    final float halfWidth = Math.max(0, width.position) / 2;
+    final float halfHeight = Math.max(0, height.position) / 2;
+    out.set(centerX.position - halfWidth, centerY.position - halfHeight, centerX.position + halfWidth, centerY.position + halfHeight);
+  }
+}
@@ -30,19 +30,55 @@ import android.util.TypedValue;
 import com.reactlibrary.datamatrix.env.BorderedText;
 import com.reactlibrary.datamatrix.env.ImageUtils;
 import com.reactlibrary.datamatrix.env.Logger;
+import com.reactlibrary.datamatrix.env.LuminanceFrame;
 import com.reactlibrary.datamatrix.tflite.Classifier.Recognition;
-
+import com.reactlibrary.datamatrix.tflite.NonMaxSuppression;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-/** A tracker that handles non-max suppression and matches existing objects to new detections. */
+/**
+ * A tracker that matches new detections to existing tracks by overlap. Every track keeps a
+ * constant velocity Kalman filter over its box, so it is predicted between detections and keeps a
+ * stable id for as long as it is detected at least every MAX_MISSED_UPDATES updates. Between
+ * detections, {@link #propagate} moves the tracks with the optical flow of corners inside them.
+ */
 public class MultiBoxTracker {
   private static final float TEXT_SIZE_DIP = 18;
   private static final float MIN_SIZE = 16.0f;
+  // Detections overlapping a track's predicted box by more than this update the track.
+  private static final float ASSOCIATION_IOU = 0.3f;
+  // Updates a track may go without a detection before it is dropped.
+  private static final int MAX_MISSED_UPDATES = 15;
+  // Optical flow runs on the luminance downscaled by this factor.
+  private static final int FLOW_DOWNSCALE = 4;
+  // Corners followed per track, a track needs MIN_FLOW_POINTS of them to be moved by the flow.
+  private static final int FLOW_POINTS_PER_TRACK = 20;
+  private static final int MIN_FLOW_POINTS = 5;
+  private static final double FLOW_CORNER_QUALITY = 0.01;
+  private static final double FLOW_CORNER_DISTANCE = 2;
+  private static final Size FLOW_WINDOW = new Size(11, 11);
+  private static final int FLOW_PYRAMID_LEVELS = 2;
 
   final List<Pair<Float, RectF>> screenRects = new LinkedList<Pair<Float, RectF>>();
   private final Logger logger = new Logger();
-  private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
+  private final List<TrackedRecognition> trackedObjects = new ArrayList<TrackedRecognition>();
   private final Paint boxPaint = new Paint();
   private final float textSizePx;
   private final BorderedText borderedText;
@@ -50,6 +86,18 @@ public class MultiBoxTracker {
   private int frameWidth;
   private int frameHeight;
   private int sensorOrientation;
+  // Frame the tracks were last predicted or updated for.
+  private long lastTimestamp = -1;
+  private int nextTrackId;
+  private long tracksExpired;
+  // The downscaled luminance of the current and the previous flow frame, only used by propagate().
+  private byte[] flowPixels;
+  private Mat flowImage;
+  private Mat previousFlowImage;
+  // Set by reset(), tells propagate() to drop the previous flow image.
+  private boolean flowReset;
+  private long flowFollowed;
+  private long flowLost;
 
   public MultiBoxTracker(final Context context) {
 
@@ -90,11 +138,250 @@ public class MultiBoxTracker {
       canvas.drawText("" + detection.first, rect.left, rect.top, textPaint);
       borderedText.drawText(canvas, rect.centerX(), rect.centerY(), "" + detection.first);
     }
+
+    for (final TrackedRecognition recognition : trackedObjects) {
+      final RectF trackedPos = new RectF(recognition.location);
+      getFrameToCanvasMatrix().mapRect(trackedPos);
+      borderedText.drawText(canvas, trackedPos.left, trackedPos.bottom, "#" + recognition.id);
+    }
   }
 
+  /**
+   * Updates the tracks with the results of frame {@code timestamp}, which may be older than the
+   * last {@link #predict}.
+   */
   public synchronized void trackResults(final List<Recognition> results, final long timestamp) {
     logger.i("Processing %d results from %d", results.size(), timestamp);
-    processResults(results);
+    processResults(results, timestamp);
+  }
+
+  /** Moves every track to where it is predicted on frame {@code timestamp}, which has no results. */
+  public synchronized void predict(final long timestamp) {
+    advance(timestamp);
+  }
+
+  /**
+   * Returns the id of the track each of {@code locations}, in frame coordinates, would update if it
+   * were detected now, or -1 where it would start a new track.
+   */
+  public synchronized int[] getTrackIds(final List<RectF> locations) {
+    final int[] ids = matchTracks(locations, 0);
+    for (int i = 0; i < ids.length; ++i) {
+      if (ids[i] >= 0) {
+        ids[i] = trackedObjects.get(ids[i]).id;
+      }
+    }
+    return ids;
+  }
+
+  /** Returns copies of the current track boxes, in frame coordinates. */
+  public synchronized List<RectF> getTrackedLocations() {
+    final List<RectF> locations = new ArrayList<RectF>(trackedObjects.size());
+    for (final TrackedRecognition track : trackedObjects) {
+      locations.add(new RectF(track.location));
+    }
+    return locations;
+  }
+
+  /** Drops every track, e.g. when the frame size changed. */
+  public synchronized void reset() {
+    trackedObjects.clear();
+    lastTimestamp = -1;
+    flowReset = true;
+  }
+
+  /**
+   * Moves every track to frame {@code timestamp} by the median flow of its corners since the last
+   * call, and picks new corners for tracks that lost too many. Returns the fraction of tracks the
+   * flow followed, 0 if there are none, so callers know when the detector has to run again.
+   *
+   * <p>Only the snapshot of the tracks and applying the moves hold the tracker's lock, the flow is
+   * computed without it so {@link #draw} isn't blocked. The flow images belong to the thread
+   * calling this, which must always be the same one.
+   */
+  public float propagate(final LuminanceFrame luminance, final long timestamp) {
+    final TrackedRecognition[] tracks;
+    final RectF[] locations;
+    final Point[][] corners;
+    final boolean flowReset;
+    synchronized (this) {
+      tracks = trackedObjects.toArray(new TrackedRecognition[0]);
+      locations = new RectF[tracks.length];
+      corners = new Point[tracks.length][];
+      for (int i = 0; i < tracks.length; ++i) {
+        locations[i] = new RectF(tracks[i].location);
+        corners[i] = tracks[i].flowPoints;
+      }
+      flowReset = this.flowReset;
+      this.flowReset = false;
+    }
+
+    downscale(luminance);
+    if (previousFlowImage != null
+        && (flowReset || previousFlowImage.cols() != flowImage.cols() || previousFlowImage.rows() != flowImage.rows())) {
+      // Reset or new size, the previous image and the corners in it don't fit anymore.
+      previousFlowImage.release();
+      previousFlowImage = null;
+      Arrays.fill(corners, null);
+    }
+    final RectF[] measured = previousFlowImage != null ? followCorners(locations, corners) : new RectF[tracks.length];
+    for (int i = 0; i < tracks.length; ++i) {
+      if (corners[i] == null || corners[i].length < MIN_FLOW_POINTS) {
+        corners[i] = findCorners(measured[i] != null ? measured[i] : locations[i]);
+      }
+    }
+    final Mat swap = previousFlowImage;
+    previousFlowImage = flowImage;
+    flowImage = swap;
+
+    synchronized (this) {
+      advance(timestamp);
+      int followed = 0;
+      for (int i = 0; i < tracks.length; ++i) {
+        final TrackedRecognition track = tracks[i];
+        if (!trackedObjects.contains(track)) {
+          // Dropped, or reset, while the flow was computed.
+          continue;
+        }
+        if (measured[i] != null) {
+          track.filter.update(measured[i]);
+          track.filter.getLocation(track.location);
+          ++followed;
+        }
+        track.flowPoints = corners[i];
+      }
+      flowFollowed += followed;
+      flowLost += trackedObjects.size() - followed;
+      return trackedObjects.isEmpty() ? 0 : followed / (float) trackedObjects.size();
+    }
+  }
+
+  // Box averages luminance into flowImage.
+  private void downscale(final LuminanceFrame luminance) {
+    final int width = luminance.width / FLOW_DOWNSCALE;
+    final int height = luminance.height / FLOW_DOWNSCALE;
+    if (flowPixels == null || flowPixels.length != width * height) {
+      flowPixels = new byte[width * height];
+    }
+    if (flowImage == null || flowImage.cols() != width || flowImage.rows() != height) {
+      if (flowImage != null) {
+        flowImage.release();
+      }
+      flowImage = new Mat(height, width, CvType.CV_8UC1);
+    }
+    final int area = FLOW_DOWNSCALE * FLOW_DOWNSCALE;
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        int sum = 0;
+        for (int j = 0; j < FLOW_DOWNSCALE; ++j) {
+          final int row = (y * FLOW_DOWNSCALE + j) * luminance.rowStride + x * FLOW_DOWNSCALE;
+          for (int i = 0; i < FLOW_DOWNSCALE; ++i) {
+            sum += luminance.data[row + i] & 0xff;
+          }
+        }
+        flowPixels[y * width + x] = (byte) (sum / area);
+      }
+    }
+    flowImage.put(0, 0, flowPixels);
+  }
+
+  /**
+   * Follows the corners of every track from the previous flow image into the current one, keeping
+   * those found in {@code corners}, and returns the box at {@code locations} each track moved to,
+   * or null for tracks that kept too few corners.
+   */
+  private RectF[] followCorners(final RectF[] locations, final Point[][] corners) {
+    final RectF[] measured = new RectF[locations.length];
+    final List<Point> points = new ArrayList<Point>();
+    for (final Point[] trackCorners : corners) {
+      if (trackCorners != null) {
+        points.addAll(Arrays.asList(trackCorners));
+      }
+    }
+    if (points.isEmpty()) {
+      return measured;
+    }
+    final MatOfPoint2f previous = new MatOfPoint2f();
+    previous.fromList(points);
+    final MatOfPoint2f next = new MatOfPoint2f();
+    final MatOfByte status = new MatOfByte();
+    final MatOfFloat error = new MatOfFloat();
+    Video.calcOpticalFlowPyrLK(previousFlowImage, flowImage, previous, next, status, error, FLOW_WINDOW, FLOW_PYRAMID_LEVELS);
+    final Point[] moved = next.toArray();
+    final byte[] found = status.toArray();
+    previous.release();
+    next.release();
+    status.release();
+    error.release();
+
+    int offset = 0;
+    for (int t = 0; t < corners.length; ++t) {
+      final Point[] trackCorners = corners[t];
+      if (trackCorners == null) {
+        continue;
+      }
+      final List<Point> kept = new ArrayList<Point>(trackCorners.length);
+      final float[] dx = new float[trackCorners.length];
+      final float[] dy = new float[trackCorners.length];
+      for (int i = 0; i < trackCorners.length; ++i, ++offset) {
+        if (found[offset] == 1) {
+          dx[kept.size()] = (float) (moved[offset].x - trackCorners[i].x);
+          dy[kept.size()] = (float) (moved[offset].y - trackCorners[i].y);
+          kept.add(moved[offset]);
+        }
+      }
+      corners[t] = kept.toArray(new Point[0]);
+      if (kept.size() >= MIN_FLOW_POINTS) {
+        // The median ignores corners that slid along an edge or latched onto the background.
+        measured[t] = new RectF(locations[t]);
+        measured[t].offset(median(dx, kept.size()) * FLOW_DOWNSCALE, median(dy, kept.size()) * FLOW_DOWNSCALE);
+      }
+    }
+    return measured;
+  }
+
+  private static float median(final float[] values, final int count) {
+    Arrays.sort(values, 0, count);
+    return count % 2 == 1 ? values[count / 2] : (values[count / 2 - 1] + values[count / 2]) / 2;
+  }
+
+  // Corners inside location in the current flow image, or null if it's outside.
+  private Point[] findCorners(final RectF location) {
+    final int left = Math.max(0, (int) (location.left / FLOW_DOWNSCALE));
+    final int top = Math.max(0, (int) (location.top / FLOW_DOWNSCALE));
+    final int right = Math.min(flowImage.cols(), (int) Math.ceil(location.right / FLOW_DOWNSCALE));
+    final int bottom = Math.min(flowImage.rows(), (int) Math.ceil(location.bottom / FLOW_DOWNSCALE));
+    if (right - left < 2 || bottom - top < 2) {
+      return null;
+    }
+    final Mat region = flowImage.submat(new Rect(left, top, right - left, bottom - top));
+    final MatOfPoint corners = new MatOfPoint();
+    Imgproc.goodFeaturesToTrack(region, corners, FLOW_POINTS_PER_TRACK, FLOW_CORNER_QUALITY, FLOW_CORNER_DISTANCE);
+    final Point[] points = corners.toArray();
+    region.release();
+    corners.release();
+    for (final Point point : points) {
+      point.x += left;
+      point.y += top;
+    }
+    return points;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "%d tracks, %d created, %d expired, flow followed %d lost %d",
+        trackedObjects.size(), nextTrackId, tracksExpired, flowFollowed, flowLost);
+  }
+
+  // Results may arrive for frames already predicted, processResults moves those forward instead.
+  private void advance(final long timestamp) {
+    if (lastTimestamp >= 0 && timestamp > lastTimestamp) {
+      for (final TrackedRecognition track : trackedObjects) {
+        track.filter.predict(timestamp - lastTimestamp);
+        track.filter.getLocation(track.location);
+      }
+    }
+    lastTimestamp = Math.max(lastTimestamp, timestamp);
   }
 
   private Matrix getFrameToCanvasMatrix() {
@@ -131,7 +418,7 @@ public class MultiBoxTracker {
     }
   }
 
-  private void processResults(final List<Recognition> results) {
+  private void processResults(final List<Recognition> results, final long timestamp) {
     final List<Pair<Float, Recognition>> rectsToTrack = new LinkedList<Pair<Float, Recognition>>();
 
     //screenRects.clear();
@@ -158,27 +445,118 @@ public class MultiBoxTracker {
       rectsToTrack.add(new Pair<Float, Recognition>(result.getConfidence(), result));
     }
 
-    trackedObjects.clear();
-    if (rectsToTrack.isEmpty()) {
-      logger.v("Nothing to track, aborting.");
-      return;
-    }
-
-    for (final Pair<Float, Recognition> potential : rectsToTrack) {
-      final TrackedRecognition trackedRecognition = new TrackedRecognition();
-      trackedRecognition.detectionConfidence = potential.first;
-      trackedRecognition.location = new RectF(potential.second.getLocation());
-      trackedRecognition.title = potential.second.getTitle();
+    // Results of a frame older than the last prediction, e.g. from the pipelined decode stage, are
+    // moved forward to it along each track's velocity instead of dragging the track back.
+    final long lag = lastTimestamp > timestamp ? lastTimestamp - timestamp : 0;
+    advance(timestamp);
+    final boolean[] matched = associate(rectsToTrack, lag);
+    for (int i = 0; i < rectsToTrack.size(); ++i) {
+      if (matched[i]) {
+        continue;
+      }
+      final Recognition result = rectsToTrack.get(i).second;
+      final TrackedRecognition trackedRecognition = new TrackedRecognition(nextTrackId++, result.getLocation());
+      trackedRecognition.detectionConfidence = rectsToTrack.get(i).first;
+      trackedRecognition.code = result.getId();
+      trackedRecognition.title = result.getTitle();
       trackedRecognition.color = Color.BLUE;
       trackedObjects.add(trackedRecognition);
+    }
+  }
+
+  /**
+   * Updates tracks with the detections overlapping them most, see {@link #matchTracks}, and counts
+   * a miss for the others, dropping those that missed too often. Detections {@code lag} frames
+   * older than the tracks are extrapolated to them first. Returns which detections matched.
+   */
+  private boolean[] associate(final List<Pair<Float, Recognition>> rectsToTrack, final long lag) {
+    final List<RectF> locations = new ArrayList<RectF>(rectsToTrack.size());
+    for (final Pair<Float, Recognition> rect : rectsToTrack) {
+      locations.add(rect.second.getLocation());
+    }
+    final int[] matches = matchTracks(locations, lag);
 
+    final RectF measured = new RectF();
+    final boolean[] trackMatched = new boolean[trackedObjects.size()];
+    final boolean[] detectionMatched = new boolean[rectsToTrack.size()];
+    for (int d = 0; d < matches.length; ++d) {
+      if (matches[d] < 0) {
+        continue;
+      }
+      trackMatched[matches[d]] = true;
+      detectionMatched[d] = true;
+      final TrackedRecognition track = trackedObjects.get(matches[d]);
+      final Recognition result = rectsToTrack.get(d).second;
+      track.filter.extrapolate(locations.get(d), lag, measured);
+      track.filter.update(measured);
+      track.filter.getLocation(track.location);
+      track.detectionConfidence = rectsToTrack.get(d).first;
+      track.code = result.getId();
+      track.missedUpdates = 0;
     }
+
+    int t = 0;
+    for (final Iterator<TrackedRecognition> it = trackedObjects.iterator(); it.hasNext(); ++t) {
+      final TrackedRecognition track = it.next();
+      if (!trackMatched[t] && ++track.missedUpdates > MAX_MISSED_UPDATES) {
+        it.remove();
+        ++tracksExpired;
+      }
+    }
+    return detectionMatched;
+  }
+
+  /**
+   * Pairs tracks with the locations, moved {@code lag} frames ahead, that overlap them most,
+   * greedily by overlap. Returns the index of each location's track, or -1 if it has none.
+   */
+  private int[] matchTracks(final List<RectF> locations, final long lag) {
+    final RectF measured = new RectF();
+    final List<float[]> pairs = new ArrayList<float[]>();
+    for (int t = 0; t < trackedObjects.size(); ++t) {
+      final TrackedRecognition track = trackedObjects.get(t);
+      for (int d = 0; d < locations.size(); ++d) {
+        track.filter.extrapolate(locations.get(d), lag, measured);
+        final float iou = NonMaxSuppression.intersectionOverUnion(track.location, measured);
+        if (iou > ASSOCIATION_IOU) {
+          pairs.add(new float[] {iou, t, d});
+        }
+      }
+    }
+    Collections.sort(pairs, (lhs, rhs) -> Float.compare(rhs[0], lhs[0]));
+
+    final boolean[] trackMatched = new boolean[trackedObjects.size()];
+    final int[] matches = new int[locations.size()];
+    Arrays.fill(matches, -1);
+    for (final float[] pair : pairs) {
+      final int t = (int) pair[1];
+      final int d = (int) pair[2];
+      if (trackMatched[t] || matches[d] >= 0) {
+        continue;
+      }
+      trackMatched[t] = true;
+      matches[d] = t;
+    }
+    return matches;
   }
 
   private static class TrackedRecognition {
-    RectF location;
+    final int id;
+    final BoxKalmanFilter filter;
+    final RectF location;
     float detectionConfidence;
     int color;
     String title;
+    // The decoded code, which may change if another code is detected in the track's place.
+    String code;
+    int missedUpdates;
+    // Corners followed by the optical flow, in the coordinates of the downscaled flow image.
+    Point[] flowPoints;
+
+    TrackedRecognition(final int id, final RectF location) {
+      this.id = id;
+      this.filter = new BoxKalmanFilter(location);
+      this.location = new RectF(location);
+    }
   }
 }
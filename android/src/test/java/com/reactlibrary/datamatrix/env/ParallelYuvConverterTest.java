@@ -0,0 +1,87 @@
+package com.reactlibrary.datamatrix.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link ParallelYuvConverter} produces exactly the pixels of the reference {@code
+ * ImageUtils.YUV2RGB} conversion, over random frames with odd sizes and padded, odd row strides,
+ * so a change to its lookup tables can't drift unnoticed.
+ */
+public class ParallelYuvConverterTest {
+  // Enough workers to split the frames below into several stripes.
+  private static final ParallelYuvConverter CONVERTER = new ParallelYuvConverter(4);
+
+  @Test
+  public void planarFrameWithOddStrides() {
+    assertSamePixels(createFrame(new Random(1), 641, 479, 645, 325, 1));
+  }
+
+  @Test
+  public void interleavedFrameWithOddStrides() {
+    assertSamePixels(createFrame(new Random(2), 641, 479, 643, 647, 2));
+  }
+
+  @Test
+  public void tallFrameSplitIntoManyStripes() {
+    assertSamePixels(createFrame(new Random(3), 97, 1501, 101, 53, 1));
+  }
+
+  @Test
+  public void nv21Frame() {
+    final Random random = new Random(4);
+    final byte[] nv21 = new byte[ImageUtils.getYUVByteSize(640, 480)];
+    random.nextBytes(nv21);
+    assertSamePixels(YuvFrame.fromNv21(nv21, 640, 480));
+  }
+
+  @Test
+  public void regionLeavesTheRestUntouched() {
+    final YuvFrame frame = createFrame(new Random(5), 641, 479, 645, 325, 1);
+    final int[] expected = new int[frame.width * frame.height];
+    ImageUtils.convertYUV420ToARGB8888(frame, expected);
+
+    final int[] actual = new int[frame.width * frame.height];
+    CONVERTER.convert(frame, 101, 37, 403, 300, actual);
+    for (int j = 0; j < frame.height; ++j) {
+      for (int i = 0; i < frame.width; ++i) {
+        final boolean inside = i >= 101 && i < 403 && j >= 37 && j < 300;
+        final int index = j * frame.width + i;
+        assertEquals("Pixel " + i + "," + j, inside ? expected[index] : 0, actual[index]);
+      }
+    }
+  }
+
+  private static void assertSamePixels(final YuvFrame frame) {
+    final int[] expected = new int[frame.width * frame.height];
+    ImageUtils.convertYUV420ToARGB8888(frame, expected);
+    final int[] actual = new int[frame.width * frame.height];
+    CONVERTER.convert(frame, actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  // Random samples, including the extremes the clamp table has to handle, in padded planes.
+  private static YuvFrame createFrame(
+      final Random random,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    final int chromaHeight = (height + 1) / 2;
+    final byte[] y = new byte[yRowStride * height];
+    final byte[] u = new byte[uvRowStride * chromaHeight];
+    final byte[] v = new byte[uvRowStride * chromaHeight];
+    random.nextBytes(y);
+    random.nextBytes(u);
+    random.nextBytes(v);
+    y[0] = 0;
+    u[0] = 0;
+    v[0] = (byte) 0xff;
+    return new YuvFrame(y, u, v, 0, 0, width, height, yRowStride, uvRowStride, uvPixelStride);
+  }
+}